@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.checksum;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Passes everything through, feeding the bytes written between
+ * {@link #beginRow(TableChecksum)} and {@link #endRow()} to a checksum.
+ *
+ */
+public class ChecksumOutputStream extends FilterOutputStream
+{
+    private TableChecksum current;
+
+    public ChecksumOutputStream(OutputStream out)
+    {
+        super(out);
+    }
+
+    public void beginRow(TableChecksum checksum)
+    {
+        current = checksum;
+    }
+
+    public void endRow()
+    {
+        current.endRow();
+        current = null;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        if (current != null)
+        {
+            current.update(b, off, len);
+        }
+        out.write(b, off, len);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.checksum;
+
+import java.math.BigInteger;
+
+/**
+ * An order independent digest of the rows of one table. Each row is hashed
+ * over its rendered bytes, from the opening to the closing parenthesis, and
+ * the row hashes are summed, so partial checksums can be combined in any order.
+ *
+ */
+public class TableChecksum
+{
+    public static final String FOOTER_PREFIX = "-- checksum ";
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final String tableName;
+    private long rowCount;
+    private long sum;
+
+    private long rowHash = FNV_OFFSET;
+
+    public TableChecksum(String tableName)
+    {
+        this.tableName = tableName;
+    }
+
+    /**
+     * @return the name of the table as it appears in the output
+     */
+    public String getTableName()
+    {
+        return tableName;
+    }
+
+    public long getRowCount()
+    {
+        return rowCount;
+    }
+
+    public long getSum()
+    {
+        return sum;
+    }
+
+    /**
+     * Feed part of the current row.
+     */
+    public void update(byte[] b, int off, int len)
+    {
+        long h = rowHash;
+        for (int i = off; i < off + len; i++)
+        {
+            h ^= b[i] & 0xff;
+            h *= FNV_PRIME;
+        }
+        rowHash = h;
+    }
+
+    /**
+     * Complete the current row and add it to the checksum.
+     */
+    public void endRow()
+    {
+        sum += mix(rowHash);
+        rowCount++;
+        rowHash = FNV_OFFSET;
+    }
+
+    /**
+     * Add a complete row.
+     */
+    public void addRow(byte[] b, int off, int len)
+    {
+        update(b, off, len);
+        endRow();
+    }
+
+    /**
+     * Combine with a partial checksum of the same table.
+     */
+    public synchronized void add(TableChecksum other)
+    {
+        rowCount += other.rowCount;
+        sum += other.sum;
+    }
+
+    /**
+     * @return true if both checksums cover the same rows
+     */
+    public boolean matches(TableChecksum other)
+    {
+        return rowCount == other.rowCount && sum == other.sum;
+    }
+
+    /**
+     * @return the footer line recording this checksum, with the table name
+     *         last since it may contain spaces
+     */
+    public String toFooter()
+    {
+        return FOOTER_PREFIX + "rows=" + rowCount + " hash=" + String.format("%016x", sum) + " " + tableName;
+    }
+
+    /**
+     * Read a line written by {@link #toFooter()}.
+     *
+     * @return the checksum, or null if the line is not a checksum footer
+     */
+    public static TableChecksum parseFooter(String line)
+    {
+        if (!line.startsWith(FOOTER_PREFIX))
+        {
+            return null;
+        }
+
+        String[] parts = line.substring(FOOTER_PREFIX.length()).split(" ", 3);
+        if (parts.length != 3 || !parts[0].startsWith("rows=") || !parts[1].startsWith("hash="))
+        {
+            return null;
+        }
+
+        TableChecksum checksum = new TableChecksum(parts[2]);
+        checksum.rowCount = Long.parseLong(parts[0].substring("rows=".length()));
+        checksum.sum = new BigInteger(parts[1].substring("hash=".length()), 16).longValue();
+        return checksum;
+    }
+
+    @Override
+    public String toString()
+    {
+        return tableName + " rows=" + rowCount + " hash=" + String.format("%016x", sum);
+    }
+
+    /**
+     * Final avalanche step so that small differences between rows spread over the whole sum.
+     */
+    private static long mix(long h)
+    {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,991 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.columnar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.Charset;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.apache.commons.io.IOUtils;
+
+import au.com.ish.derbydump.derbydump.metadata.Column;
+
+/**
+ * The values of one column for the current row group, held as a primitive
+ * vector of its physical type. See {@link ColumnarWriter} for the layout written.
+ *
+ */
+public abstract class ColumnChunk
+{
+    public static final byte TYPE_BOOLEAN = 1;
+    public static final byte TYPE_INT32 = 2;
+    public static final byte TYPE_INT64 = 3;
+    public static final byte TYPE_FLOAT = 4;
+    public static final byte TYPE_DOUBLE = 5;
+    public static final byte TYPE_DECIMAL = 6;
+    public static final byte TYPE_BYTES = 7;
+
+    public static final byte ENCODING_PLAIN = 0;
+    public static final byte ENCODING_DICTIONARY = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    protected final String name;
+    protected final BitSet nulls = new BitSet();
+    protected int size;
+    protected int nonNull;
+
+    protected ColumnChunk(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * @param dictionaryLimit The most distinct values a text chunk is dictionary encoded with
+     * @return the chunk suited to the type of the column
+     */
+    public static ColumnChunk forColumn(Column column, int dictionaryLimit)
+    {
+        String name = column.getColumnName();
+        switch (column.getColumnDataType())
+        {
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return new BooleanChunk(name);
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return new IntChunk(name);
+            case Types.DATE:
+                return new DateChunk(name);
+            case Types.TIME:
+                return new TimeChunk(name);
+            case Types.BIGINT:
+                return new LongChunk(name);
+            case Types.TIMESTAMP:
+                return new TimestampChunk(name);
+            case Types.REAL:
+            case Types.FLOAT:
+                return new FloatChunk(name);
+            case Types.DOUBLE:
+                return new DoubleChunk(name);
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return new DecimalChunk(name, column.getDecimalDigits());
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                return new BinaryChunk(name);
+            case Types.CHAR:
+            case Types.VARCHAR:
+                return new TextChunk(name, dictionaryLimit, true);
+            default:
+                // long and unusual text is rarely repeated, and has no useful order
+                return new TextChunk(name, 0, false);
+        }
+    }
+
+    /**
+     * @return the physical type written to the file header
+     */
+    public abstract byte getPhysicalType();
+
+    /**
+     * Add the value of the current row.
+     */
+    public void read(ResultSet row) throws SQLException, IOException
+    {
+        if (!readValue(row))
+        {
+            nulls.set(size);
+        }
+        else
+        {
+            nonNull++;
+        }
+        size++;
+    }
+
+    /**
+     * @return false if the value is NULL, otherwise the value is appended
+     */
+    protected abstract boolean readValue(ResultSet row) throws SQLException, IOException;
+
+    /**
+     * @return an estimate of the memory held by the values read so far
+     */
+    public abstract long getBufferedBytes();
+
+    /**
+     * Write the chunk and empty it for the next row group.
+     */
+    public void write(DataOutputStream output) throws IOException
+    {
+        finish();
+        output.writeByte(getEncoding());
+
+        byte[] bitmap = new byte[(size + 7) / 8];
+        for (int i = nulls.nextSetBit(0); i >= 0; i = nulls.nextSetBit(i + 1))
+        {
+            bitmap[i / 8] |= 1 << (i % 8);
+        }
+        output.writeInt(size - nonNull);
+        if (nonNull < size)
+        {
+            output.write(bitmap);
+        }
+
+        boolean statistics = nonNull > 0 && hasStatistics();
+        output.writeBoolean(statistics);
+        if (statistics)
+        {
+            writeStatistics(output);
+        }
+
+        ByteArrayOutputStream values = new ByteArrayOutputStream();
+        writeValues(new DataOutputStream(values));
+        output.writeInt(values.size());
+        values.writeTo(output);
+
+        nulls.clear();
+        size = 0;
+        nonNull = 0;
+        reset();
+    }
+
+    /**
+     * Called once all values of the row group are read, before anything is written.
+     */
+    protected void finish() throws IOException
+    {
+    }
+
+    protected byte getEncoding()
+    {
+        return ENCODING_PLAIN;
+    }
+
+    protected boolean hasStatistics()
+    {
+        return true;
+    }
+
+    /**
+     * Write the minimum and then the maximum value, in the same form as the values.
+     */
+    protected abstract void writeStatistics(DataOutputStream output) throws IOException;
+
+    /**
+     * Write the values which are not NULL.
+     */
+    protected abstract void writeValues(DataOutputStream output) throws IOException;
+
+    protected abstract void reset();
+
+    /**
+     * Date and time values are read as wall clock times, whatever the time zone of this JVM.
+     * Not Calendar.getInstance(), which is a Buddhist or Japanese calendar in some locales.
+     */
+    private static Calendar utc()
+    {
+        return new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+    }
+
+    private static long floorDiv(long value, long divisor)
+    {
+        long quotient = value / divisor;
+        if (value % divisor < 0)
+        {
+            quotient--;
+        }
+        return quotient;
+    }
+
+    static class BooleanChunk extends ColumnChunk
+    {
+        private BitSet values = new BitSet();
+        private boolean min = true;
+        private boolean max = false;
+
+        BooleanChunk(String name)
+        {
+            super(name);
+        }
+
+        @Override
+        public byte getPhysicalType()
+        {
+            return TYPE_BOOLEAN;
+        }
+
+        @Override
+        protected boolean readValue(ResultSet row) throws SQLException
+        {
+            boolean value = row.getBoolean(name);
+            if (row.wasNull())
+            {
+                return false;
+            }
+            values.set(nonNull, value);
+            min &= value;
+            max |= value;
+            return true;
+        }
+
+        @Override
+        public long getBufferedBytes()
+        {
+            return size / 8;
+        }
+
+        @Override
+        protected void writeStatistics(DataOutputStream output) throws IOException
+        {
+            output.writeBoolean(min);
+            output.writeBoolean(max);
+        }
+
+        @Override
+        protected void writeValues(DataOutputStream output) throws IOException
+        {
+            // bit packed like the null bitmap
+            byte[] packed = new byte[(nonNull + 7) / 8];
+            for (int i = values.nextSetBit(0); i >= 0 && i < nonNull; i = values.nextSetBit(i + 1))
+            {
+                packed[i / 8] |= 1 << (i % 8);
+            }
+            output.write(packed);
+        }
+
+        @Override
+        protected void reset()
+        {
+            values.clear();
+            min = true;
+            max = false;
+        }
+    }
+
+    static class IntChunk extends ColumnChunk
+    {
+        private int[] values = new int[1024];
+        private int min = Integer.MAX_VALUE;
+        private int max = Integer.MIN_VALUE;
+
+        IntChunk(String name)
+        {
+            super(name);
+        }
+
+        @Override
+        public byte getPhysicalType()
+        {
+            return TYPE_INT32;
+        }
+
+        @Override
+        protected boolean readValue(ResultSet row) throws SQLException
+        {
+            int value = row.getInt(name);
+            if (row.wasNull())
+            {
+                return false;
+            }
+            add(value);
+            return true;
+        }
+
+        protected void add(int value)
+        {
+            if (nonNull == values.length)
+            {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[nonNull] = value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        @Override
+        public long getBufferedBytes()
+        {
+            return values.length * 4L;
+        }
+
+        @Override
+        protected void writeStatistics(DataOutputStream output) throws IOException
+        {
+            output.writeInt(min);
+            output.writeInt(max);
+        }
+
+        @Override
+        protected void writeValues(DataOutputStream output) throws IOException
+        {
+            for (int i = 0; i < nonNull; i++)
+            {
+                output.writeInt(values[i]);
+            }
+        }
+
+        @Override
+        protected void reset()
+        {
+            min = Integer.MAX_VALUE;
+            max = Integer.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Days since 1970-01-01.
+     */
+    static class DateChunk extends IntChunk
+    {
+        private final Calendar calendar = utc();
+
+        DateChunk(String name)
+        {
+            super(name);
+        }
+
+        @Override
+        protected boolean readValue(ResultSet row) throws SQLException
+        {
+            Date value = row.getDate(name, calendar);
+            if (value == null)
+            {
+                return false;
+            }
+            add((int) floorDiv(value.getTime(), MILLIS_PER_DAY));
+            return true;
+        }
+    }
+
+    /**
+     * Milliseconds since midnight.
+     */
+    static class TimeChunk extends IntChunk
+    {
+        private final Calendar calendar = utc();
+
+        TimeChunk(String name)
+        {
+            super(name);
+        }
+
+        @Override
+        protected boolean readValue(ResultSet row) throws SQLException
+        {
+            Time value = row.getTime(name, calendar);
+            if (value == null)
+            {
+                return false;
+            }
+            long millis = value.getTime();
+            add((int) (millis - floorDiv(millis, MILLIS_PER_DAY) * MILLIS_PER_DAY));
+            return true;
+        }
+    }
+
+    static class LongChunk extends ColumnChunk
+    {
+        private long[] values = new long[1024];
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+
+        LongChunk(String name)
+        {
+            super(name);
+        }
+
+        @Override
+        public byte getPhysicalType()
+        {
+            return TYPE_INT64;
+        }
+
+        @Override
+        protected boolean readValue(ResultSet row) throws SQLException
+        {
+            long value = row.getLong(name);
+            if (row.wasNull())
+            {
+                return false;
+            }
+            add(value);
+            return true;
+        }
+
+        protected void add(long value)
+        {
+            if (nonNull == values.length)
+            {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[nonNull] = value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        @Override
+        public long getBufferedBytes()
+        {
+            return values.length * 8L;
+        }
+
+        @Override
+        protected void writeStatistics(DataOutputStream output) throws IOException
+        {
+            output.writeLong(min);
+            output.writeLong(max);
+        }
+
+        @Override
+        protected void writeValues(DataOutputStream output) throws IOException
+        {
+            for (int i = 0; i < nonNull; i++)
+            {
+                output.writeLong(values[i]);
+            }
+        }
+
+        @Override
+        protected void reset()
+        {
+            min = Long.MAX_VALUE;
+            max = Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Microseconds since 1970-01-01 00:00.
+     */
+    static class TimestampChunk extends LongChunk
+    {
+        private final Calendar calendar = utc();
+
+        TimestampChunk(String name)
+        {
+            super(name);
+        }
+
+        @Override
+        protected boolean readValue(ResultSet row) throws SQLException
+        {
+            Timestamp value = row.getTimestamp(name, calendar);
+            if (value == null)
+            {
+                return false;
+            }
+            // getTime() includes the milliseconds, getNanos() the whole fraction of the second
+            add(floorDiv(value.getTime(), 1000) * 1000000 + value.getNanos() / 1000);
+            return true;
+        }
+    }
+
+    static class FloatChunk extends ColumnChunk
+    {
+        private float[] values = new float[1024];
+        private float min = Float.POSITIVE_INFINITY;
+        private float max = Float.NEGATIVE_INFINITY;
+
+        FloatChunk(String name)
+        {
+            super(name);
+        }
+
+        @Override
+        public byte getPhysicalType()
+        {
+            return TYPE_FLOAT;
+        }
+
+        @Override
+        protected boolean readValue(ResultSet row) throws SQLException
+        {
+            float value = row.getFloat(name);
+            if (row.wasNull())
+            {
+                return false;
+            }
+            if (nonNull == values.length)
+            {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[nonNull] = value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            return true;
+        }
+
+        @Override
+        public long getBufferedBytes()
+        {
+            return values.length * 4L;
+        }
+
+        @Override
+        protected void writeStatistics(DataOutputStream output) throws IOException
+        {
+            output.writeFloat(min);
+            output.writeFloat(max);
+        }
+
+        @Override
+        protected void writeValues(DataOutputStream output) throws IOException
+        {
+            for (int i = 0; i < nonNull; i++)
+            {
+                output.writeFloat(values[i]);
+            }
+        }
+
+        @Override
+        protected void reset()
+        {
+            min = Float.POSITIVE_INFINITY;
+            max = Float.NEGATIVE_INFINITY;
+        }
+    }
+
+    static class DoubleChunk extends ColumnChunk
+    {
+        private double[] values = new double[1024];
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+
+        DoubleChunk(String name)
+        {
+            super(name);
+        }
+
+        @Override
+        public byte getPhysicalType()
+        {
+            return TYPE_DOUBLE;
+        }
+
+        @Override
+        protected boolean readValue(ResultSet row) throws SQLException
+        {
+            double value = row.getDouble(name);
+            if (row.wasNull())
+            {
+                return false;
+            }
+            if (nonNull == values.length)
+            {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[nonNull] = value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            return true;
+        }
+
+        @Override
+        public long getBufferedBytes()
+        {
+            return values.length * 8L;
+        }
+
+        @Override
+        protected void writeStatistics(DataOutputStream output) throws IOException
+        {
+            output.writeDouble(min);
+            output.writeDouble(max);
+        }
+
+        @Override
+        protected void writeValues(DataOutputStream output) throws IOException
+        {
+            for (int i = 0; i < nonNull; i++)
+            {
+                output.writeDouble(values[i]);
+            }
+        }
+
+        @Override
+        protected void reset()
+        {
+            min = Double.POSITIVE_INFINITY;
+            max = Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Variable length values, each written as its length and its bytes.
+     */
+    abstract static class VariableChunk extends ColumnChunk
+    {
+        protected ByteArrayOutputStream values = new ByteArrayOutputStream();
+        protected DataOutputStream valuesOutput = new DataOutputStream(values);
+
+        VariableChunk(String name)
+        {
+            super(name);
+        }
+
+        protected void add(byte[] value) throws IOException
+        {
+            valuesOutput.writeInt(value.length);
+            valuesOutput.write(value);
+        }
+
+        @Override
+        public long getBufferedBytes()
+        {
+            return values.size();
+        }
+
+        @Override
+        protected void writeValues(DataOutputStream output) throws IOException
+        {
+            values.writeTo(output);
+        }
+
+        @Override
+        protected void reset()
+        {
+            // a single huge value should not keep its buffer for the rest of the table
+            values = new ByteArrayOutputStream();
+            valuesOutput = new DataOutputStream(values);
+        }
+    }
+
+    /**
+     * The unscaled value in big endian two's complement, at the scale of the column.
+     */
+    static class DecimalChunk extends VariableChunk
+    {
+        private final int scale;
+        private BigDecimal min;
+        private BigDecimal max;
+
+        DecimalChunk(String name, int scale)
+        {
+            super(name);
+            this.scale = scale;
+        }
+
+        @Override
+        public byte getPhysicalType()
+        {
+            return TYPE_DECIMAL;
+        }
+
+        @Override
+        protected boolean readValue(ResultSet row) throws SQLException, IOException
+        {
+            BigDecimal value = row.getBigDecimal(name);
+            if (value == null)
+            {
+                return false;
+            }
+            // Derby returns the declared scale already, so this never rounds
+            value = value.setScale(scale, RoundingMode.HALF_UP);
+            add(value.unscaledValue().toByteArray());
+            if (min == null || value.compareTo(min) < 0)
+            {
+                min = value;
+            }
+            if (max == null || value.compareTo(max) > 0)
+            {
+                max = value;
+            }
+            return true;
+        }
+
+        @Override
+        protected void writeStatistics(DataOutputStream output) throws IOException
+        {
+            byte[] bytes = min.unscaledValue().toByteArray();
+            output.writeInt(bytes.length);
+            output.write(bytes);
+            bytes = max.unscaledValue().toByteArray();
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+
+        @Override
+        protected void reset()
+        {
+            super.reset();
+            min = null;
+            max = null;
+        }
+    }
+
+    /**
+     * Raw bytes, without statistics. A row group keeps its values until it is
+     * written, so each value is read whole; this is outside dump.memoryBudget.
+     */
+    static class BinaryChunk extends VariableChunk
+    {
+        BinaryChunk(String name)
+        {
+            super(name);
+        }
+
+        @Override
+        public byte getPhysicalType()
+        {
+            return TYPE_BYTES;
+        }
+
+        @Override
+        protected boolean readValue(ResultSet row) throws SQLException, IOException
+        {
+            InputStream value = row.getBinaryStream(name);
+            if (value == null)
+            {
+                return false;
+            }
+            try
+            {
+                add(IOUtils.toByteArray(value));
+            }
+            finally
+            {
+                value.close();
+            }
+            return true;
+        }
+
+        @Override
+        protected boolean hasStatistics()
+        {
+            return false;
+        }
+
+        @Override
+        protected void writeStatistics(DataOutputStream output)
+        {
+        }
+    }
+
+    /**
+     * UTF-8 text. While a row group has few distinct values they are written once
+     * in a dictionary, and each row as its index in the dictionary.
+     */
+    static class TextChunk extends VariableChunk
+    {
+        private final int dictionaryLimit;
+        private final boolean statistics;
+        private Map<String, Integer> dictionary = new HashMap<String, Integer>();
+        private int[] indexes = new int[1024];
+        private byte[] min;
+        private byte[] max;
+
+        TextChunk(String name, int dictionaryLimit, boolean statistics)
+        {
+            super(name);
+            this.dictionaryLimit = dictionaryLimit;
+            this.statistics = statistics;
+            if (dictionaryLimit == 0)
+            {
+                dictionary = null;
+            }
+        }
+
+        @Override
+        public byte getPhysicalType()
+        {
+            return TYPE_BYTES;
+        }
+
+        @Override
+        protected boolean readValue(ResultSet row) throws SQLException, IOException
+        {
+            String value = row.getString(name);
+            if (value == null)
+            {
+                return false;
+            }
+
+            byte[] bytes = value.getBytes(UTF8);
+            if (statistics)
+            {
+                if (min == null || compare(bytes, min) < 0)
+                {
+                    min = bytes;
+                }
+                if (max == null || compare(bytes, max) > 0)
+                {
+                    max = bytes;
+                }
+            }
+
+            if (dictionary != null)
+            {
+                Integer index = dictionary.get(value);
+                if (index == null)
+                {
+                    if (dictionary.size() == dictionaryLimit)
+                    {
+                        switchToPlain();
+                        add(bytes);
+                        return true;
+                    }
+                    index = dictionary.size();
+                    dictionary.put(value, index);
+                    add(bytes);
+                }
+                if (nonNull == indexes.length)
+                {
+                    indexes = Arrays.copyOf(indexes, indexes.length * 2);
+                }
+                indexes[nonNull] = index;
+                return true;
+            }
+
+            add(bytes);
+            return true;
+        }
+
+        /**
+         * Too many distinct values, write every value out in full instead.
+         */
+        private void switchToPlain() throws IOException
+        {
+            byte[][] entries = new byte[dictionary.size()][];
+            for (Map.Entry<String, Integer> entry : dictionary.entrySet())
+            {
+                entries[entry.getValue()] = entry.getKey().getBytes(UTF8);
+            }
+            dictionary = null;
+
+            super.reset();
+            for (int i = 0; i < nonNull; i++)
+            {
+                add(entries[indexes[i]]);
+            }
+        }
+
+        @Override
+        protected void finish() throws IOException
+        {
+            // the dictionary only pays off when values repeat
+            if (dictionary != null && dictionary.size() * 2 > nonNull)
+            {
+                switchToPlain();
+            }
+        }
+
+        @Override
+        public long getBufferedBytes()
+        {
+            return super.getBufferedBytes() + (dictionary == null ? 0 : indexes.length * 4L);
+        }
+
+        @Override
+        protected byte getEncoding()
+        {
+            return dictionary == null ? ENCODING_PLAIN : ENCODING_DICTIONARY;
+        }
+
+        @Override
+        protected boolean hasStatistics()
+        {
+            return statistics;
+        }
+
+        @Override
+        protected void writeStatistics(DataOutputStream output) throws IOException
+        {
+            output.writeInt(min.length);
+            output.write(min);
+            output.writeInt(max.length);
+            output.write(max);
+        }
+
+        @Override
+        protected void writeValues(DataOutputStream output) throws IOException
+        {
+            if (dictionary == null)
+            {
+                super.writeValues(output);
+                return;
+            }
+
+            // the dictionary, then each index in as few bytes as the dictionary size allows
+            output.writeInt(dictionary.size());
+            super.writeValues(output);
+            int width = dictionary.size() <= 0x100 ? 1 : dictionary.size() <= 0x10000 ? 2 : 4;
+            output.writeByte(width);
+            for (int i = 0; i < nonNull; i++)
+            {
+                if (width == 1)
+                {
+                    output.writeByte(indexes[i]);
+                }
+                else if (width == 2)
+                {
+                    output.writeShort(indexes[i]);
+                }
+                else
+                {
+                    output.writeInt(indexes[i]);
+                }
+            }
+        }
+
+        @Override
+        protected void reset()
+        {
+            super.reset();
+            dictionary = dictionaryLimit == 0 ? null : new HashMap<String, Integer>();
+            min = null;
+            max = null;
+        }
+
+        /**
+         * Unsigned byte order, which for UTF-8 is code point order.
+         */
+        private static int compare(byte[] a, byte[] b)
+        {
+            int length = Math.min(a.length, b.length);
+            for (int i = 0; i < length; i++)
+            {
+                int difference = (a[i] & 0xff) - (b[i] & 0xff);
+                if (difference != 0)
+                {
+                    return difference;
+                }
+            }
+            return a.length - b.length;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.columnar;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import au.com.ish.derbydump.derbydump.metadata.Column;
+import au.com.ish.derbydump.derbydump.metadata.Table;
+
+/**
+ * Writes the rows of one table as a column chunked file. All numbers are big
+ * endian, as written by {@link DataOutputStream}.
+ *
+ * <pre>
+ * file       = "DDCOL" version:byte(1) header rowGroup* int(0) totalRows:long
+ * header     = tableName:utf columnCount:int column*
+ * column     = name:utf jdbcType:int physicalType:byte scale:int nullable:boolean
+ * rowGroup   = rowCount:int chunk{columnCount}
+ * chunk      = encoding:byte nullCount:int [nullBitmap] hasStats:boolean [min max] length:int values
+ * </pre>
+ *
+ * The null bitmap is only present when nullCount is above zero, and has bit
+ * (row % 8) of byte (row / 8) set for each NULL row. The values, and min and
+ * max, hold only the rows which are not NULL, in row order:
+ *
+ * <ul>
+ * <li>BOOLEAN (1): bit packed like the null bitmap, min and max one byte each</li>
+ * <li>INT32 (2): SMALLINT and INTEGER; DATE as days since 1970-01-01; TIME as milliseconds since midnight</li>
+ * <li>INT64 (3): BIGINT; TIMESTAMP as microseconds since 1970-01-01 00:00</li>
+ * <li>FLOAT (4) and DOUBLE (5): IEEE 754</li>
+ * <li>DECIMAL (6): length:int and the unscaled value in two's complement, at the scale of the column</li>
+ * <li>BYTES (7): length:int and the bytes, UTF-8 for text. Binary and long text columns have no min and max</li>
+ * </ul>
+ *
+ * Dates and times are the wall clock values stored in Derby, without a time
+ * zone. A chunk with encoding DICTIONARY (1) holds dictionarySize:int, that many
+ * BYTES values, width:byte and then an unsigned index of width bytes into the
+ * dictionary for each row which is not NULL. Text min and max compare as
+ * unsigned bytes.
+ *
+ */
+public class ColumnarWriter implements Closeable
+{
+    private static final byte[] MAGIC = { 'D', 'D', 'C', 'O', 'L' };
+    private static final int VERSION = 1;
+
+    private final DataOutputStream output;
+    private final List<ColumnChunk> chunks = new ArrayList<ColumnChunk>();
+    private final int rowGroupRows;
+    private final long rowGroupBytes;
+
+    private int groupRows;
+    private long totalRows;
+
+    /**
+     * @param rowGroupRows The most rows in a row group
+     * @param rowGroupBytes A row group ends early once its values hold about this much memory
+     * @param dictionaryLimit The most distinct values in a dictionary encoded chunk
+     */
+    public ColumnarWriter(Table table, OutputStream output, int rowGroupRows, long rowGroupBytes, int dictionaryLimit) throws IOException
+    {
+        this.output = new DataOutputStream(new BufferedOutputStream(output, 1 << 16));
+        this.rowGroupRows = rowGroupRows;
+        this.rowGroupBytes = rowGroupBytes;
+
+        this.output.write(MAGIC);
+        this.output.writeByte(VERSION);
+        this.output.writeUTF(table.getOutputName());
+        this.output.writeInt(table.getColumns().size());
+        for (Column column : table.getColumns())
+        {
+            ColumnChunk chunk = ColumnChunk.forColumn(column, dictionaryLimit);
+            chunks.add(chunk);
+
+            this.output.writeUTF(column.getColumnName());
+            this.output.writeInt(column.getColumnDataType());
+            this.output.writeByte(chunk.getPhysicalType());
+            this.output.writeInt(column.getDecimalDigits());
+            this.output.writeBoolean(column.isNullable());
+        }
+    }
+
+    /**
+     * Add the current row.
+     */
+    public void addRow(ResultSet row) throws SQLException, IOException
+    {
+        long buffered = 0;
+        for (ColumnChunk chunk : chunks)
+        {
+            chunk.read(row);
+            buffered += chunk.getBufferedBytes();
+        }
+        groupRows++;
+        totalRows++;
+
+        if (groupRows >= rowGroupRows || buffered >= rowGroupBytes)
+        {
+            writeRowGroup();
+        }
+    }
+
+    /**
+     * @return the number of rows added
+     */
+    public long getRowCount()
+    {
+        return totalRows;
+    }
+
+    private void writeRowGroup() throws IOException
+    {
+        output.writeInt(groupRows);
+        for (ColumnChunk chunk : chunks)
+        {
+            chunk.write(output);
+        }
+        groupRows = 0;
+    }
+
+    /**
+     * Write the last row group and the end of the file. A file without its end
+     * was not written completely.
+     */
+    public void finish() throws IOException
+    {
+        if (groupRows > 0)
+        {
+            writeRowGroup();
+        }
+        output.writeInt(0);
+        output.writeLong(totalRows);
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        output.close();
+    }
+}
@@ -19,19 +19,44 @@ package au.com.ish.derbydump.derbydump.config;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+
+import au.com.ish.derbydump.derbydump.dialect.Dialect;
+import au.com.ish.derbydump.derbydump.dialect.MySqlDialect;
+import au.com.ish.derbydump.derbydump.dialect.PostgresDialect;
+import au.com.ish.derbydump.derbydump.metadata.TypeExporter;
+import au.com.ish.derbydump.derbydump.metadata.TypeExporters;
 
 /**
  * Loads relevant application settings from properties file, by default.
  * 
+ * When embedding, use {@link #builder()} or {@link #Configuration(Properties)}
+ * instead, which do not look at system properties or the file.
+ * 
  */
 public class Configuration
 {
+    /**
+     * Options which only apply when the rows are written into a PostgreSQL script
+     */
+    private static final String[] POSTGRESQL_SCRIPT_OPTIONS = { "output.unlogged", "output.schema", "output.dropIndexes",
+            "output.sequences", "output.checksums", "output.index", "output.dedupLobs", "profile.sampleInterval" };
+
     private Properties prop;
+    private TableFilter tableFilter;
+    private TypeExporters typeExporters;
 
     public Configuration()
     {
-        prop = System.getProperties();
+        // work on a copy so that loading the file does not change the system properties
+        prop = new Properties();
+        prop.putAll(System.getProperties());
 
         File file = new File(prop.getProperty("config.file", "derbydump.properties"));
         if (!file.exists())
@@ -49,6 +74,20 @@ public class Configuration
         }
     }
 
+    /**
+     * @param properties The settings, using the same keys as derbydump.properties
+     */
+    public Configuration(Properties properties)
+    {
+        prop = new Properties();
+        prop.putAll(properties);
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
     public String getDerbyUrl()
     {
         return prop.getProperty("db.url");
@@ -59,13 +98,734 @@ public class Configuration
         return prop.getProperty("db.schemaName");
     }
 
+    /**
+     * @return the number of schemas dumped at the same time when several are configured, at least one
+     */
+    public int getThreads()
+    {
+        String threads = prop.getProperty("dump.threads");
+        if (threads == null)
+        {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return Math.max(1, Integer.parseInt(threads.trim()));
+    }
+
+    /**
+     * db.url and db.schemaName may each be a comma separated list. Every schema
+     * is dumped from every database, each to its own file named by expanding
+     * {database} and {schema} in outputPath. Without those placeholders the
+     * names are appended to the file name.
+     *
+     * @return one configuration for each database and schema
+     * @throws IllegalArgumentException if the targets cannot be written to separate files
+     */
+    public List<Configuration> getTargets()
+    {
+        List<String> urls = split(getDerbyUrl());
+        List<String> schemas = split(getSchemaName());
+
+        List<Configuration> targets = new ArrayList<Configuration>();
+        if (urls.size() == 1 && schemas.size() == 1)
+        {
+            targets.add(this);
+            return targets;
+        }
+
+        String outputPath = getOutputFilePath();
+        if (outputPath == null)
+        {
+            throw new IllegalArgumentException("outputPath is required when dumping more than one schema");
+        }
+
+        Set<String> paths = new HashSet<String>();
+        for (String url : urls)
+        {
+            for (String schema : schemas)
+            {
+                String path = expandOutputPath(outputPath, urls.size() > 1 ? getDatabaseName(url) : null, schemas.size() > 1 ? schema : null);
+                if (!paths.add(path))
+                {
+                    throw new IllegalArgumentException("More than one schema would be written to " + path + ", use {database} and {schema} in outputPath");
+                }
+
+                Configuration target = new Configuration(prop);
+                target.prop.setProperty("db.url", url);
+                target.prop.setProperty("db.schemaName", schema);
+                target.prop.setProperty("outputPath", path);
+                // every target gets its own index next to its output
+                target.prop.remove("output.indexPath");
+                target.typeExporters = getTypeExporters();
+                targets.add(target);
+            }
+        }
+        return targets;
+    }
+
+    static String expandOutputPath(String outputPath, String database, String schema)
+    {
+        if (outputPath.contains("{database}") || outputPath.contains("{schema}"))
+        {
+            return outputPath.replace("{database}", database == null ? "" : database).replace("{schema}", schema == null ? "" : schema);
+        }
+
+        StringBuilder suffix = new StringBuilder();
+        if (database != null)
+        {
+            suffix.append("-").append(database);
+        }
+        if (schema != null)
+        {
+            suffix.append("-").append(schema);
+        }
+
+        int extension = outputPath.lastIndexOf('.');
+        if (extension <= outputPath.lastIndexOf(File.separatorChar))
+        {
+            return outputPath + suffix;
+        }
+        return outputPath.substring(0, extension) + suffix + outputPath.substring(extension);
+    }
+
+    /**
+     * @return the last path element of a derby url, without attributes
+     */
+    static String getDatabaseName(String url)
+    {
+        String name = url;
+        int attributes = name.indexOf(';');
+        if (attributes >= 0)
+        {
+            name = name.substring(0, attributes);
+        }
+        name = name.replaceAll("[/\\\\:]+$", "");
+        return name.substring(Math.max(name.lastIndexOf('/'), Math.max(name.lastIndexOf('\\'), name.lastIndexOf(':'))) + 1);
+    }
+
+    private static List<String> split(String value)
+    {
+        List<String> result = new ArrayList<String>();
+        if (value == null)
+        {
+            return result;
+        }
+
+        for (String part : value.split(","))
+        {
+            if (!part.trim().isEmpty())
+            {
+                result.add(part.trim());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The registry belongs to this configuration, so dumps with different
+     * configurations never share exporters.
+     *
+     * @return the exporters of the column types without built in handling
+     */
+    public synchronized TypeExporters getTypeExporters()
+    {
+        if (typeExporters == null)
+        {
+            typeExporters = TypeExporters.createDefault();
+        }
+        return typeExporters;
+    }
+
+    /**
+     * The table rewrite file and patterns, read once.
+     *
+     * @return the filter deciding which tables are dumped and how they are named
+     */
+    public synchronized TableFilter getTableFilter()
+    {
+        if (tableFilter == null)
+        {
+            String rewritePath = prop.getProperty("tableRewritePath");
+            File rewriteFile = null;
+            if (rewritePath != null && !rewritePath.trim().isEmpty())
+            {
+                rewriteFile = new File(rewritePath.trim());
+                if (!rewriteFile.exists())
+                {
+                    System.err.println("tableRewritePath not found, no tables are rewritten: " + rewriteFile);
+                    rewriteFile = null;
+                }
+            }
+
+            try
+            {
+                tableFilter = new TableFilter(rewriteFile, prop.getProperty("tables.include"), prop.getProperty("tables.exclude"));
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException("Error reading " + rewriteFile, e);
+            }
+        }
+        return tableFilter;
+    }
+
+    /**
+     * @return the condition from table.NAME.where limiting the rows dumped, or null for all rows
+     */
+    public String getTableWhere(String tableName)
+    {
+        String where = getTableOption(tableName, "where");
+        return where == null || where.isEmpty() ? null : where;
+    }
+
+    /**
+     * @return the columns listed in table.NAME.columns, empty to dump all columns
+     */
+    public List<String> getTableColumns(String tableName)
+    {
+        return split(getTableOption(tableName, "columns"));
+    }
+
+    /**
+     * @return the columns listed in table.NAME.excludeColumns, which are not dumped
+     */
+    public List<String> getTableExcludedColumns(String tableName)
+    {
+        return split(getTableOption(tableName, "excludeColumns"));
+    }
+
+    /**
+     * Find table.NAME.option, matching the table name case insensitively.
+     */
+    private String getTableOption(String tableName, String option)
+    {
+        String prefix = "table.";
+        String suffix = "." + option;
+
+        for (String key : prop.stringPropertyNames())
+        {
+            if (key.startsWith(prefix) && key.endsWith(suffix)
+                    && key.length() == prefix.length() + tableName.length() + suffix.length()
+                    && key.regionMatches(true, prefix.length(), tableName, 0, tableName.length()))
+            {
+                return prop.getProperty(key).trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true to dump the tables in foreign key dependency layers rather than in catalog order
+     */
+    public boolean getDependencyOrder()
+    {
+        return getConstraintsEnabled() || prop.getProperty("output.order", "catalog").trim().equalsIgnoreCase("dependencies");
+    }
+
+    /**
+     * @return true to read the rows of each table in key order and start INSERT
+     *         statements at rows chosen by their key, so that dumps of similar
+     *         data are mostly identical
+     */
+    public boolean getKeyOrder()
+    {
+        return prop.getProperty("output.rowOrder", "none").trim().equalsIgnoreCase("key");
+    }
+
+    /**
+     * @return true to leave constraints and triggers enabled during the restore, which
+     *         relies on the tables being in dependency order
+     */
+    public boolean getConstraintsEnabled()
+    {
+        return prop.getProperty("output.constraints", "deferred").trim().equalsIgnoreCase("enabled");
+    }
+
+    /**
+     * @return true to read the tables with Derby's export procedures instead of over JDBC
+     */
+    public boolean getExportBackend()
+    {
+        return prop.getProperty("dump.backend", "jdbc").trim().equalsIgnoreCase("export");
+    }
+
+    /**
+     * @return the number of exported tables transcoded at the same time
+     */
+    public int getExportThreads()
+    {
+        String threads = prop.getProperty("dump.backend.threads");
+        if (threads == null)
+        {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return Integer.parseInt(threads.trim());
+    }
+
+    /**
+     * @return the JDBC url of the database to copy the tables into instead of writing a dump, or null
+     */
+    public String getCopyUrl()
+    {
+        return prop.getProperty("copy.url");
+    }
+
+    public String getCopyUser()
+    {
+        return prop.getProperty("copy.user");
+    }
+
+    public String getCopyPassword()
+    {
+        return prop.getProperty("copy.password");
+    }
+
+    /**
+     * @return the number of rows sent to the target in one batch
+     */
+    public int getCopyBatchSize()
+    {
+        return Integer.parseInt(prop.getProperty("copy.batchSize", "1000").trim());
+    }
+
+    /**
+     * @return the number of rows of a table copied between commits
+     */
+    public int getCopyCommitInterval()
+    {
+        return Integer.parseInt(prop.getProperty("copy.commitInterval", "10000").trim());
+    }
+
+    /**
+     * @return the number of tables copied at the same time, each with its own connections
+     */
+    public int getCopyThreads()
+    {
+        String threads = prop.getProperty("copy.threads");
+        if (threads == null)
+        {
+            return getThreads();
+        }
+        return Integer.parseInt(threads.trim());
+    }
+
+    /**
+     * @return the directory the columnar files are written to, or null
+     */
+    public String getColumnarDir()
+    {
+        return prop.getProperty("columnar.dir");
+    }
+
+    /**
+     * @return the most rows in a row group of a columnar file
+     */
+    public int getColumnarRowGroupRows()
+    {
+        return Integer.parseInt(prop.getProperty("columnar.rowGroupRows", "65536").trim());
+    }
+
+    /**
+     * @return the memory in bytes a row group of a columnar file may hold before it is written
+     */
+    public long getColumnarRowGroupBytes()
+    {
+        return Long.parseLong(prop.getProperty("columnar.rowGroupBytes", "67108864").trim());
+    }
+
+    /**
+     * @return the most distinct values of a text column chunk written with a dictionary
+     */
+    public int getColumnarDictionaryLimit()
+    {
+        return Integer.parseInt(prop.getProperty("columnar.dictionaryLimit", "4096").trim());
+    }
+
+    /**
+     * @return the most rows dumped a second, 0 for no limit
+     */
+    public long getThrottleRowsPerSecond()
+    {
+        return Long.parseLong(prop.getProperty("throttle.rowsPerSecond", "0").trim());
+    }
+
+    /**
+     * @return the most bytes written a second, 0 for no limit
+     */
+    public long getThrottleBytesPerSecond()
+    {
+        return Long.parseLong(prop.getProperty("throttle.bytesPerSecond", "0").trim());
+    }
+
+    /**
+     * @return the average row fetch time in microseconds above which the dump slows down, 0 to never adapt
+     */
+    public long getThrottleLatencyThresholdMicros()
+    {
+        return Long.parseLong(prop.getProperty("throttle.latencyThresholdMicros", "0").trim());
+    }
+
+    /**
+     * @return the properties file the throttle limits are read from while the dump runs, or null
+     */
+    public String getThrottleControlFile()
+    {
+        String path = prop.getProperty("throttle.controlFile");
+        return path == null || path.trim().isEmpty() ? null : path.trim();
+    }
+
+    /**
+     * @return true to make the throttle limits adjustable through JMX
+     */
+    public boolean getThrottleJmx()
+    {
+        return Boolean.valueOf(prop.getProperty("throttle.jmx", "false").trim());
+    }
+
+    public boolean getThrottling()
+    {
+        return getThrottleRowsPerSecond() > 0 || getThrottleBytesPerSecond() > 0 || getThrottleLatencyThresholdMicros() > 0
+                || getThrottleControlFile() != null || getThrottleJmx();
+    }
+
+    /**
+     * @return the share of rows to keep from tables which do not refer to another dumped table
+     */
+    public double getSampleFraction()
+    {
+        return Double.parseDouble(prop.getProperty("sample.fraction", "1").trim());
+    }
+
+    /**
+     * @return the most rows to dump from any table, 0 for no limit
+     */
+    public long getSampleMaxRows()
+    {
+        return Long.parseLong(prop.getProperty("sample.maxRows", "0").trim());
+    }
+
+    public boolean getSampling()
+    {
+        return getSampleFraction() < 1 || getSampleMaxRows() > 0;
+    }
+
+    /**
+     * @return the bytes all buffered output may hold on the heap before spilling
+     *         to disk, by default a quarter of the maximum heap
+     */
+    public long getMemoryBudget()
+    {
+        String budget = prop.getProperty("dump.memoryBudget");
+        if (budget == null)
+        {
+            return Runtime.getRuntime().maxMemory() / 4;
+        }
+        return Long.parseLong(budget.trim()) * 1024 * 1024;
+    }
+
+    /**
+     * @return measure the columns of every this many rows, 0 to not profile the dump
+     */
+    public int getProfileInterval()
+    {
+        if (getDataFiles())
+        {
+            // data files are written a row at a time, with no columns to measure apart
+            return 0;
+        }
+        return Integer.parseInt(prop.getProperty("profile.sampleInterval", "0").trim());
+    }
+
     public String getOutputFilePath()
     {
         return prop.getProperty("outputPath");
     }
 
+    /**
+     * @return the name of the database the restore script is written for
+     */
+    public String getDialectName()
+    {
+        return prop.getProperty("output.dialect", "postgresql").trim();
+    }
+
+    /**
+     * @return the database the restore script is written for
+     */
+    public Dialect getDialect()
+    {
+        String dialect = getDialectName();
+        if (dialect.equalsIgnoreCase("postgresql"))
+        {
+            return new PostgresDialect();
+        }
+        if (dialect.equalsIgnoreCase("mysql"))
+        {
+            return new MySqlDialect();
+        }
+        throw new IllegalArgumentException("Unknown output.dialect " + dialect);
+    }
+
+    /**
+     * @return true if the rows go to data files loaded by the script rather than into the script itself
+     */
+    private boolean getDataFiles()
+    {
+        return getDialect().getDataFileWriter() != null;
+    }
+
+    /**
+     * @return the directory the data files are written to, by default next to the output file
+     */
+    public String getDataDir()
+    {
+        String path = prop.getProperty("output.dataDir");
+        if (path == null && getOutputFilePath() != null)
+        {
+            path = getOutputFilePath() + ".data";
+        }
+        return path;
+    }
+
+    /**
+     * @return the options which are set but have no effect with the configured dialect
+     */
+    public List<String> getIgnoredOptions()
+    {
+        List<String> ignored = new ArrayList<String>();
+        if (getDataFiles())
+        {
+            for (String key : POSTGRESQL_SCRIPT_OPTIONS)
+            {
+                if (prop.getProperty(key) != null)
+                {
+                    ignored.add(key);
+                }
+            }
+        }
+        return ignored;
+    }
+
+    /**
+     * @return the output buffer size in kB
+     */
+    public int getBufferSize()
+    {
+        return Integer.parseInt(prop.getProperty("dump.buffer.size", "8912").trim());
+    }
+
     public boolean getTruncateTables()
     {
         return Boolean.valueOf(prop.getProperty("output.truncateTables", "true").trim());
     }
+
+    /**
+     * @return true to load each table UNLOGGED and switch it back to LOGGED afterwards
+     */
+    public boolean getUnloggedTables()
+    {
+        return !getDataFiles() && Boolean.valueOf(prop.getProperty("output.unlogged", "false").trim());
+    }
+
+    /**
+     * @return true to create the tables before the data, and their keys, indexes and constraints after it
+     */
+    public boolean getSchema()
+    {
+        return !getDataFiles() && Boolean.valueOf(prop.getProperty("output.schema", "false").trim());
+    }
+
+    /**
+     * @return true to drop secondary indexes and foreign keys before the data and recreate them after
+     */
+    public boolean getDropIndexes()
+    {
+        return !getDataFiles() && Boolean.valueOf(prop.getProperty("output.dropIndexes", "false").trim());
+    }
+
+    /**
+     * @return -1 for one transaction around all data, 0 for one transaction per
+     *         table, otherwise the number of rows after which to commit
+     */
+    public int getCommitInterval()
+    {
+        String interval = prop.getProperty("output.commitInterval", "").trim();
+        if (interval.isEmpty())
+        {
+            return -1;
+        }
+        if (interval.equalsIgnoreCase("table"))
+        {
+            return 0;
+        }
+        return Integer.parseInt(interval);
+    }
+
+    public boolean getAnalyze()
+    {
+        return Boolean.valueOf(prop.getProperty("output.analyze", "false").trim());
+    }
+
+    /**
+     * @return true to set sequences from the values seen during the dump, false
+     *         to have the restore scan each table for its maximum in cleanup.sql
+     */
+    public boolean getComputedSequences()
+    {
+        return !getDataFiles() && prop.getProperty("output.sequences", "scan").trim().equalsIgnoreCase("computed");
+    }
+
+    public boolean getChecksums()
+    {
+        return !getDataFiles() && Boolean.valueOf(prop.getProperty("output.checksums", "false").trim());
+    }
+
+    public boolean getIndex()
+    {
+        return !getDataFiles() && Boolean.valueOf(prop.getProperty("output.index", "false").trim());
+    }
+
+    /**
+     * @return where the table index is written, by default next to the output file
+     */
+    public String getIndexPath()
+    {
+        String path = prop.getProperty("output.indexPath");
+        if (path == null && getOutputFilePath() != null)
+        {
+            path = getOutputFilePath() + ".idx";
+        }
+        return path;
+    }
+
+    public boolean getDedupLobs()
+    {
+        return !getDataFiles() && Boolean.valueOf(prop.getProperty("output.dedupLobs", "false").trim());
+    }
+
+    public int getDedupLobsMinSize()
+    {
+        return Integer.parseInt(prop.getProperty("output.dedupLobs.minSize", "256").trim());
+    }
+
+    public int getDedupLobsMemoryEntries()
+    {
+        return Integer.parseInt(prop.getProperty("output.dedupLobs.memoryEntries", "100000").trim());
+    }
+
+    public int getDedupLobsSpillThreshold()
+    {
+        return Integer.parseInt(prop.getProperty("output.dedupLobs.spillThreshold", "1048576").trim());
+    }
+
+    /**
+     * Builds a {@link Configuration} in code, for running a dump from inside another application.
+     */
+    public static class Builder
+    {
+        private final Properties prop = new Properties();
+        private final Map<Integer, TypeExporter> exportersByType = new HashMap<Integer, TypeExporter>();
+        private final Map<String, TypeExporter> exportersByName = new HashMap<String, TypeExporter>();
+
+        Builder()
+        {
+        }
+
+        public Builder derbyUrl(String url)
+        {
+            return set("db.url", url);
+        }
+
+        public Builder schemaName(String schemaName)
+        {
+            return set("db.schemaName", schemaName);
+        }
+
+        public Builder truncateTables(boolean truncateTables)
+        {
+            return set("output.truncateTables", String.valueOf(truncateTables));
+        }
+
+        /**
+         * @param kilobytes the output buffer size in kB
+         */
+        public Builder bufferSize(int kilobytes)
+        {
+            return set("dump.buffer.size", String.valueOf(kilobytes));
+        }
+
+        public Builder checksums(boolean checksums)
+        {
+            return set("output.checksums", String.valueOf(checksums));
+        }
+
+        public Builder dedupLobs(boolean dedupLobs)
+        {
+            return set("output.dedupLobs", String.valueOf(dedupLobs));
+        }
+
+        /**
+         * @param indexPath where to write the table index, or null for none
+         */
+        public Builder indexPath(String indexPath)
+        {
+            set("output.index", String.valueOf(indexPath != null));
+            return set("output.indexPath", indexPath);
+        }
+
+        /**
+         * Add an exporter to the built configuration, in place of any built in or
+         * {@link au.com.ish.derbydump.derbydump.metadata.TypeExporterProvider} one.
+         *
+         * @param jdbcType A constant of {@link java.sql.Types}
+         */
+        public Builder typeExporter(int jdbcType, TypeExporter exporter)
+        {
+            exportersByType.put(jdbcType, exporter);
+            return this;
+        }
+
+        /**
+         * @param typeName The Derby type name, such as the name of a user defined type
+         * @see #typeExporter(int, TypeExporter)
+         */
+        public Builder typeExporter(String typeName, TypeExporter exporter)
+        {
+            exportersByName.put(typeName, exporter);
+            return this;
+        }
+
+        /**
+         * Set any option by its derbydump.properties key.
+         *
+         * @param key The property name
+         * @param value The value, or null to remove it
+         */
+        public Builder set(String key, String value)
+        {
+            if (value == null)
+            {
+                prop.remove(key);
+            }
+            else
+            {
+                prop.setProperty(key, value);
+            }
+            return this;
+        }
+
+        public Configuration build()
+        {
+            Configuration config = new Configuration(prop);
+            TypeExporters registry = config.getTypeExporters();
+            for (Map.Entry<Integer, TypeExporter> exporter : exportersByType.entrySet())
+            {
+                registry.register(exporter.getKey(), exporter.getValue());
+            }
+            for (Map.Entry<String, TypeExporter> exporter : exportersByName.entrySet())
+            {
+                registry.register(exporter.getKey(), exporter.getValue());
+            }
+            return config;
+        }
+    }
 }
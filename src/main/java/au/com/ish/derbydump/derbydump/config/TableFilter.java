@@ -0,0 +1,181 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.config;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which tables are dumped and what they are called in the output.
+ *
+ * The rewrite file has one table per line as OriginalName = NewName, where the
+ * left side is matched case insensitively. A right side of --exclude-- leaves the
+ * table out, and then the left side may also be a pattern using * and ?.
+ * Include and exclude patterns can also be given as comma separated lists,
+ * and are matched against the Derby name whether or not the table is renamed.
+ *
+ */
+public class TableFilter
+{
+    public static final String EXCLUDE = "--exclude--";
+
+    /**
+     * Exact rewrites, keyed by upper case table name
+     */
+    private final Map<String, String> rewrites = new HashMap<String, String>();
+    private final List<Pattern> includes = new ArrayList<Pattern>();
+    private final List<Pattern> excludes = new ArrayList<Pattern>();
+
+    /**
+     * @param rewriteFile The rewrite file, or null for none
+     * @param includes Comma separated patterns of the tables to dump, or null for all
+     * @param excludes Comma separated patterns of tables to leave out, or null for none
+     * @throws IOException on error reading the rewrite file
+     */
+    public TableFilter(File rewriteFile, String includes, String excludes) throws IOException
+    {
+        if (rewriteFile != null)
+        {
+            readRewrites(rewriteFile);
+        }
+        addPatterns(includes, this.includes);
+        addPatterns(excludes, this.excludes);
+    }
+
+    private void readRewrites(File file) throws IOException
+    {
+        Properties lines = new Properties();
+        try (Reader in = new InputStreamReader(new FileInputStream(file), "UTF-8"))
+        {
+            lines.load(in);
+        }
+
+        for (String name : lines.stringPropertyNames())
+        {
+            String target = lines.getProperty(name).trim();
+
+            if (isPattern(name))
+            {
+                if (!EXCLUDE.equals(target))
+                {
+                    throw new IllegalArgumentException("Only " + EXCLUDE + " can be used with a pattern: " + name);
+                }
+                excludes.add(toPattern(name));
+            }
+            else
+            {
+                rewrites.put(name.trim().toUpperCase(), target);
+            }
+        }
+    }
+
+    /**
+     * @param tableName The name of the table in Derby
+     * @return true if the table should be dumped
+     */
+    public boolean isIncluded(String tableName)
+    {
+        if (EXCLUDE.equals(rewrites.get(tableName.toUpperCase())))
+        {
+            return false;
+        }
+
+        // a renamed table is still matched by its Derby name
+        if (!includes.isEmpty() && !matchesAny(tableName, includes))
+        {
+            return false;
+        }
+        return !matchesAny(tableName, excludes);
+    }
+
+    /**
+     * @param tableName The name of the table in Derby
+     * @return the name to use for the table in the output
+     */
+    public String getOutputName(String tableName)
+    {
+        String rewrite = rewrites.get(tableName.toUpperCase());
+        if (rewrite == null || EXCLUDE.equals(rewrite))
+        {
+            return tableName;
+        }
+        return rewrite;
+    }
+
+    private static boolean matchesAny(String tableName, List<Pattern> patterns)
+    {
+        for (Pattern pattern : patterns)
+        {
+            if (pattern.matcher(tableName).matches())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void addPatterns(String list, List<Pattern> patterns)
+    {
+        if (list == null)
+        {
+            return;
+        }
+
+        for (String glob : list.split(","))
+        {
+            if (!glob.trim().isEmpty())
+            {
+                patterns.add(toPattern(glob));
+            }
+        }
+    }
+
+    private static boolean isPattern(String name)
+    {
+        return name.indexOf('*') >= 0 || name.indexOf('?') >= 0;
+    }
+
+    private static Pattern toPattern(String glob)
+    {
+        StringBuilder regex = new StringBuilder();
+        for (char c : glob.trim().toCharArray())
+        {
+            if (c == '*')
+            {
+                regex.append(".*");
+            }
+            else if (c == '?')
+            {
+                regex.append('.');
+            }
+            else
+            {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE);
+    }
+}
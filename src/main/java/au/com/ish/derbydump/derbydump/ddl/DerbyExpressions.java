@@ -0,0 +1,199 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.ddl;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Translates the Derby SQL of column defaults and check constraints into PostgreSQL.
+ *
+ * Only the part of the grammar which both databases share is accepted: literals,
+ * column names, operators and a few common functions. Derby writes the special
+ * registers with a space, CURRENT DATE, and binary literals as X'0F', which are
+ * rewritten. Anything else, such as other functions, casts or quoted names,
+ * cannot be translated and the expression is left out.
+ *
+ */
+final class DerbyExpressions
+{
+    /**
+     * Functions which take the same arguments and give the same result in both databases
+     */
+    private static final Set<String> FUNCTIONS = new HashSet<String>(Arrays.asList("ABS", "COALESCE", "LENGTH",
+            "LOWER", "UPPER", "TRIM", "LTRIM", "RTRIM", "MOD", "NULLIF", "SQRT", "FLOOR", "CEIL"));
+
+    /**
+     * Keywords which may come before a parenthesis without being a function call
+     */
+    private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList("AND", "OR", "NOT", "IN", "BETWEEN",
+            "CASE", "WHEN", "THEN", "ELSE"));
+
+    /**
+     * Derby special registers written CURRENT X, which PostgreSQL names CURRENT_X
+     */
+    private static final Set<String> CURRENT_REGISTERS = new HashSet<String>(Arrays.asList("DATE", "TIME", "TIMESTAMP"));
+
+    private static final String OPERATORS = "()<>=!+-*/,|%";
+
+    private DerbyExpressions()
+    {
+    }
+
+    /**
+     * @param expression A Derby expression
+     * @return the expression as PostgreSQL, or null if it cannot be translated
+     */
+    static String translate(String expression)
+    {
+        StringBuilder result = new StringBuilder();
+        int i = 0;
+        int length = expression.length();
+        while (i < length)
+        {
+            char c = expression.charAt(i);
+            if (Character.isWhitespace(c))
+            {
+                if (result.length() > 0 && result.charAt(result.length() - 1) != ' ')
+                {
+                    result.append(' ');
+                }
+                i++;
+            }
+            else if (c == '\'')
+            {
+                int end = endOfString(expression, i);
+                if (end < 0)
+                {
+                    return null;
+                }
+                result.append(expression, i, end);
+                i = end;
+            }
+            else if (Character.isDigit(c) || (c == '.' && i + 1 < length && Character.isDigit(expression.charAt(i + 1))))
+            {
+                int start = i;
+                while (i < length && (Character.isDigit(expression.charAt(i)) || expression.charAt(i) == '.'))
+                {
+                    i++;
+                }
+                if (i < length && Character.toUpperCase(expression.charAt(i)) == 'E')
+                {
+                    i++;
+                    if (i < length && (expression.charAt(i) == '+' || expression.charAt(i) == '-'))
+                    {
+                        i++;
+                    }
+                    while (i < length && Character.isDigit(expression.charAt(i)))
+                    {
+                        i++;
+                    }
+                }
+                result.append(expression, start, i);
+            }
+            else if (Character.isLetter(c) || c == '_')
+            {
+                int start = i;
+                while (i < length && (Character.isLetterOrDigit(expression.charAt(i)) || expression.charAt(i) == '_'))
+                {
+                    i++;
+                }
+                String word = expression.substring(start, i).toUpperCase();
+
+                if (word.equals("X") && i < length && expression.charAt(i) == '\'')
+                {
+                    int end = endOfString(expression, i);
+                    if (end < 0)
+                    {
+                        return null;
+                    }
+                    result.append("'\\x").append(expression, i + 1, end - 1).append("'::bytea");
+                    i = end;
+                    continue;
+                }
+
+                int next = skipWhitespace(expression, i);
+                if (word.equals("CURRENT"))
+                {
+                    int end = next;
+                    while (end < length && Character.isLetter(expression.charAt(end)))
+                    {
+                        end++;
+                    }
+                    String register = expression.substring(next, end).toUpperCase();
+                    if (!CURRENT_REGISTERS.contains(register))
+                    {
+                        // CURRENT SCHEMA, CURRENT ROLE and so on
+                        return null;
+                    }
+                    result.append("CURRENT_").append(register);
+                    i = end;
+                    continue;
+                }
+                if (next < length && expression.charAt(next) == '(' && !FUNCTIONS.contains(word) && !KEYWORDS.contains(word))
+                {
+                    return null;
+                }
+                result.append(expression, start, i);
+            }
+            else if (OPERATORS.indexOf(c) >= 0)
+            {
+                result.append(c);
+                i++;
+            }
+            else
+            {
+                // quoted names, parameters and anything else Derby specific
+                return null;
+            }
+        }
+        return result.toString().trim();
+    }
+
+    /**
+     * @return the index after the string literal starting at start, or -1 if it is not closed
+     */
+    private static int endOfString(String expression, int start)
+    {
+        int i = start + 1;
+        while (i < expression.length())
+        {
+            if (expression.charAt(i) == '\'')
+            {
+                if (i + 1 < expression.length() && expression.charAt(i + 1) == '\'')
+                {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    private static int skipWhitespace(String expression, int start)
+    {
+        int i = start;
+        while (i < expression.length() && Character.isWhitespace(expression.charAt(i)))
+        {
+            i++;
+        }
+        return i;
+    }
+}
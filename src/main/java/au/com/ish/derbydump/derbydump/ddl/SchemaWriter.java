@@ -0,0 +1,358 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.ddl;
+
+import java.sql.DatabaseMetaData;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import au.com.ish.derbydump.derbydump.metadata.CheckConstraint;
+import au.com.ish.derbydump.derbydump.metadata.Column;
+import au.com.ish.derbydump.derbydump.metadata.ForeignKey;
+import au.com.ish.derbydump.derbydump.metadata.Index;
+import au.com.ish.derbydump.derbydump.metadata.Table;
+
+/**
+ * Writes PostgreSQL DDL for the dumped tables.
+ *
+ * The tables are created bare, with only their columns, defaults and NOT NULL.
+ * Keys, indexes and checks are added once the data is loaded, which is much
+ * faster than maintaining them row by row, and foreign keys come last so that
+ * every table they refer to has its primary key.
+ *
+ * Only the dumped columns are created. Indexes and constraints on columns which
+ * are left out of the dump are skipped, as are foreign keys to a key which is
+ * not created. Defaults and checks are kept as Derby wrote them where
+ * PostgreSQL reads them the same, and are otherwise skipped with a warning.
+ *
+ */
+public class SchemaWriter
+{
+    private final Map<String, Table> tables = new HashMap<String, Table>();
+
+    /**
+     * @param tables The tables being dumped
+     */
+    public SchemaWriter(List<Table> tables)
+    {
+        for (Table table : tables)
+        {
+            this.tables.put(table.getTableName(), table);
+        }
+    }
+
+    /**
+     * @return the CREATE TABLE statement
+     */
+    public String getCreateTableSQL(Table table)
+    {
+        StringBuilder sql = new StringBuilder();
+        sql.append("CREATE TABLE ").append(table.getOutputName()).append(" (");
+
+        boolean first = true;
+        for (Column column : table.getColumns())
+        {
+            if (!first)
+            {
+                sql.append(",");
+            }
+            first = false;
+
+            sql.append("\n  ").append(column.getColumnName()).append(" ").append(getTypeSQL(column));
+
+            // identity columns get their default from the serial type
+            if (column.getDefaultValue() != null && !column.isIdentity() && !column.getDefaultValue().startsWith("GENERATED"))
+            {
+                String value = DerbyExpressions.translate(column.getDefaultValue());
+                if (value == null)
+                {
+                    System.err.println("Skipping default " + column.getDefaultValue() + " of column " + column.getColumnName()
+                            + ", it cannot be written for PostgreSQL.");
+                }
+                else
+                {
+                    sql.append(" DEFAULT ").append(value);
+                }
+            }
+            if (!column.isNullable())
+            {
+                sql.append(" NOT NULL");
+            }
+        }
+
+        sql.append("\n);");
+        return sql.toString();
+    }
+
+    /**
+     * @return the statements adding the primary key, unique constraints, indexes and checks
+     */
+    public List<String> getConstraintSQL(Table table)
+    {
+        List<String> statements = new ArrayList<String>();
+
+        if (hasPrimaryKey(table))
+        {
+            statements.add("ALTER TABLE " + table.getOutputName() + " ADD" + getConstraintName(table.getPrimaryKeyName())
+                    + " PRIMARY KEY (" + join(table.getPrimaryKey()) + ");");
+        }
+
+        for (Index index : table.getIndexes())
+        {
+            if (!hasColumns(table, index.getColumns()))
+            {
+                System.err.println("Skipping index " + index.getName() + " on a column which is not dumped.");
+                continue;
+            }
+
+            if (index.isConstraint())
+            {
+                statements.add("ALTER TABLE " + table.getOutputName() + " ADD" + getConstraintName(index.getName())
+                        + " UNIQUE (" + join(index.getColumns()) + ");");
+                continue;
+            }
+
+            StringBuilder sql = new StringBuilder();
+            sql.append(index.isUnique() ? "CREATE UNIQUE INDEX " : "CREATE INDEX ");
+            sql.append(index.getName()).append(" ON ").append(table.getOutputName()).append(" (");
+            for (int i = 0; i < index.getColumns().size(); i++)
+            {
+                if (i > 0)
+                {
+                    sql.append(",");
+                }
+                sql.append(index.getColumns().get(i));
+                if (index.isDescending(i))
+                {
+                    sql.append(" DESC");
+                }
+            }
+            sql.append(");");
+            statements.add(sql.toString());
+        }
+
+        for (CheckConstraint check : table.getCheckConstraints())
+        {
+            String definition = DerbyExpressions.translate(check.getDefinition());
+            if (definition == null)
+            {
+                System.err.println("Skipping check " + check.getName() + ", it cannot be written for PostgreSQL.");
+                continue;
+            }
+            // Derby keeps the condition as written, usually already in parentheses
+            if (!isParenthesized(definition))
+            {
+                definition = "(" + definition + ")";
+            }
+            statements.add("ALTER TABLE " + table.getOutputName() + " ADD" + getConstraintName(check.getName())
+                    + " CHECK " + definition + ";");
+        }
+
+        return statements;
+    }
+
+    /**
+     * @return the statements adding the foreign keys to other dumped tables
+     */
+    public List<String> getForeignKeySQL(Table table)
+    {
+        List<String> statements = new ArrayList<String>();
+
+        for (ForeignKey key : table.getForeignKeys())
+        {
+            Table referenced = tables.get(key.getReferencedTableName());
+            if (referenced == null || !hasColumns(table, key.getColumns()))
+            {
+                System.err.println("Skipping foreign key " + key.getName() + " to a table or column which is not dumped.");
+                continue;
+            }
+            if (!hasColumns(referenced, key.getReferencedColumns()) || !hasKey(referenced, key.getReferencedColumns()))
+            {
+                System.err.println("Skipping foreign key " + key.getName() + " to columns of " + referenced.getOutputName()
+                        + " which have no primary key or unique constraint.");
+                continue;
+            }
+
+            statements.add("ALTER TABLE " + table.getOutputName() + " ADD" + getConstraintName(key.getName())
+                    + " FOREIGN KEY (" + join(key.getColumns()) + ") REFERENCES " + referenced.getOutputName()
+                    + " (" + join(key.getReferencedColumns()) + ")"
+                    + getRuleSQL("DELETE", key.getDeleteRule()) + getRuleSQL("UPDATE", key.getUpdateRule()) + ";");
+        }
+
+        return statements;
+    }
+
+    /**
+     * @return the PostgreSQL type of the column
+     */
+    static String getTypeSQL(Column column)
+    {
+        switch (column.getColumnDataType())
+        {
+            case Types.SMALLINT:
+                return column.isIdentity() ? "smallserial" : "smallint";
+            case Types.INTEGER:
+                return column.isIdentity() ? "serial" : "integer";
+            case Types.BIGINT:
+                return column.isIdentity() ? "bigserial" : "bigint";
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                return "numeric(" + column.getColumnSize() + "," + column.getDecimalDigits() + ")";
+            case Types.REAL:
+                return "real";
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return "double precision";
+            case Types.BOOLEAN:
+            case Types.BIT:
+                return "boolean";
+            case Types.CHAR:
+                return "char(" + column.getColumnSize() + ")";
+            case Types.VARCHAR:
+                return "varchar(" + column.getColumnSize() + ")";
+            case Types.LONGVARCHAR:
+            case Types.CLOB:
+                return "text";
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                return "bytea";
+            case Types.DATE:
+                return "date";
+            case Types.TIME:
+                return "time";
+            case Types.TIMESTAMP:
+                return "timestamp";
+            case Types.SQLXML:
+                return "xml";
+            default:
+                System.err.println("No PostgreSQL type for column " + column.getColumnName() + " of JDBC type "
+                        + column.getColumnDataType() + ", using text.");
+                return "text";
+        }
+    }
+
+    private static String getRuleSQL(String action, int rule)
+    {
+        switch (rule)
+        {
+            case DatabaseMetaData.importedKeyCascade:
+                return " ON " + action + " CASCADE";
+            case DatabaseMetaData.importedKeySetNull:
+                return " ON " + action + " SET NULL";
+            case DatabaseMetaData.importedKeySetDefault:
+                return " ON " + action + " SET DEFAULT";
+            case DatabaseMetaData.importedKeyRestrict:
+                return " ON " + action + " RESTRICT";
+            default:
+                // NO ACTION is the default
+                return "";
+        }
+    }
+
+    private static String getConstraintName(String name)
+    {
+        return name == null ? "" : " CONSTRAINT " + name;
+    }
+
+    /**
+     * @return true if the whole expression is inside one pair of parentheses, unlike (A) OR (B)
+     */
+    private static boolean isParenthesized(String expression)
+    {
+        if (!expression.startsWith("("))
+        {
+            return false;
+        }
+        int depth = 0;
+        boolean quoted = false;
+        for (int i = 0; i < expression.length(); i++)
+        {
+            char c = expression.charAt(i);
+            if (c == '\'')
+            {
+                quoted = !quoted;
+            }
+            else if (!quoted && c == '(')
+            {
+                depth++;
+            }
+            else if (!quoted && c == ')' && --depth == 0)
+            {
+                return i == expression.length() - 1;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasPrimaryKey(Table table)
+    {
+        return !table.getPrimaryKey().isEmpty() && hasColumns(table, table.getPrimaryKey());
+    }
+
+    /**
+     * @return true if getConstraintSQL creates a primary key or unique index on exactly these columns
+     */
+    private static boolean hasKey(Table table, List<String> columns)
+    {
+        Set<String> wanted = new HashSet<String>(columns);
+        if (hasPrimaryKey(table) && wanted.equals(new HashSet<String>(table.getPrimaryKey())))
+        {
+            return true;
+        }
+        for (Index index : table.getIndexes())
+        {
+            if (index.isUnique() && hasColumns(table, index.getColumns()) && wanted.equals(new HashSet<String>(index.getColumns())))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasColumns(Table table, List<String> columns)
+    {
+        for (String column : columns)
+        {
+            if (table.getColumn(column) == null)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String join(List<String> columns)
+    {
+        StringBuilder result = new StringBuilder();
+        for (String column : columns)
+        {
+            if (result.length() > 0)
+            {
+                result.append(",");
+            }
+            result.append(column);
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.dialect;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+import au.com.ish.derbydump.derbydump.metadata.Column;
+import au.com.ish.derbydump.derbydump.metadata.Table;
+
+/**
+ * Writes the rows of each table to a file of its own, in a format the target
+ * database bulk loads.
+ *
+ */
+public interface DataFileWriter
+{
+    /**
+     * @return the extension of the data files, including the dot
+     */
+    String getFileExtension();
+
+    /**
+     * Write the current row.
+     */
+    void writeRow(List<Column> columns, ResultSet row, OutputStream output) throws SQLException, IOException;
+
+    /**
+     * @return the statement of the script loading the file into the table
+     */
+    String getLoadSQL(Table table, File dataFile);
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.dialect;
+
+import au.com.ish.derbydump.derbydump.metadata.Table;
+
+/**
+ * The statements of the restore script which differ between target databases.
+ *
+ */
+public interface Dialect
+{
+    /**
+     * @return the statement holding back foreign key checks until the data is loaded
+     */
+    String getDeferConstraintsSQL();
+
+    /**
+     * @return the statement checking foreign keys again
+     */
+    String getRestoreConstraintsSQL();
+
+    /**
+     * @return the statement switching off triggers or index maintenance of a table while it is loaded
+     */
+    String getDisableTableSQL(Table table);
+
+    /**
+     * @return the statement undoing {@link #getDisableTableSQL(Table)}
+     */
+    String getEnableTableSQL(Table table);
+
+    String getBeginSQL();
+
+    String getCommitSQL();
+
+    /**
+     * @return the statement emptying a table before it is loaded
+     */
+    String getDeleteSQL(Table table);
+
+    /**
+     * @return the statement updating the planner statistics of a table
+     */
+    String getAnalyzeSQL(Table table);
+
+    /**
+     * @return the classpath resource ending the script, such as resetting sequences, or null for none
+     */
+    String getCleanupResource();
+
+    /**
+     * @return the writer of the per table data files the script loads, or null to
+     *         write the rows into the script as INSERT statements
+     */
+    DataFileWriter getDataFileWriter();
+}
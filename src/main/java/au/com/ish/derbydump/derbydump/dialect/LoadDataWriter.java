@@ -0,0 +1,244 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.dialect;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+
+import au.com.ish.derbydump.derbydump.metadata.Column;
+import au.com.ish.derbydump.derbydump.metadata.Table;
+
+/**
+ * Writes rows in the default format of MySQL's LOAD DATA INFILE: tab separated
+ * fields, one row per line, backslash escapes and \N for NULL. Text is UTF-8
+ * and binary values are written as their raw bytes, so the file is loaded with
+ * CHARACTER SET binary and no value is ever converted twice.
+ *
+ */
+public class LoadDataWriter implements DataFileWriter
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] NULL = { '\\', 'N' };
+
+    @Override
+    public String getFileExtension()
+    {
+        return ".tsv";
+    }
+
+    @Override
+    public void writeRow(List<Column> columns, ResultSet row, OutputStream output) throws SQLException, IOException
+    {
+        boolean first = true;
+        for (Column column : columns)
+        {
+            if (!first)
+            {
+                output.write('\t');
+            }
+            first = false;
+            writeValue(column, row, output);
+        }
+        output.write('\n');
+    }
+
+    @Override
+    public String getLoadSQL(Table table, File dataFile)
+    {
+        StringBuilder sql = new StringBuilder();
+        sql.append("LOAD DATA LOCAL INFILE '");
+        sql.append(dataFile.getAbsolutePath().replace("\\", "\\\\").replace("'", "\\'"));
+        sql.append("' INTO TABLE ").append(table.getOutputName());
+        sql.append(" CHARACTER SET binary (");
+        boolean first = true;
+        for (Column column : table.getColumns())
+        {
+            if (!first)
+            {
+                sql.append(",");
+            }
+            first = false;
+            sql.append(column.getColumnName());
+        }
+        sql.append(");");
+        return sql.toString();
+    }
+
+    private void writeValue(Column column, ResultSet row, OutputStream output) throws SQLException, IOException
+    {
+        String name = column.getColumnName();
+
+        switch (column.getColumnDataType())
+        {
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+            {
+                InputStream value = row.getBinaryStream(name);
+                if (value == null)
+                {
+                    output.write(NULL);
+                    return;
+                }
+                try
+                {
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = value.read(buffer)) != -1)
+                    {
+                        writeEscaped(buffer, read, output);
+                    }
+                }
+                finally
+                {
+                    value.close();
+                }
+                return;
+            }
+
+            case Types.CLOB:
+            {
+                Reader value = row.getCharacterStream(name);
+                if (value == null)
+                {
+                    output.write(NULL);
+                    return;
+                }
+                try
+                {
+                    char[] buffer = new char[8192];
+                    int read;
+                    while ((read = value.read(buffer)) != -1)
+                    {
+                        // a split surrogate pair encodes as garbage, so keep the high half for the next chunk
+                        if (Character.isHighSurrogate(buffer[read - 1]))
+                        {
+                            int next = value.read();
+                            if (next != -1)
+                            {
+                                writeText(new String(buffer, 0, read) + (char) next, output);
+                                continue;
+                            }
+                        }
+                        writeText(new String(buffer, 0, read), output);
+                    }
+                }
+                finally
+                {
+                    value.close();
+                }
+                return;
+            }
+
+            case Types.BOOLEAN:
+            {
+                boolean value = row.getBoolean(name);
+                if (row.wasNull())
+                {
+                    output.write(NULL);
+                }
+                else
+                {
+                    output.write(value ? '1' : '0');
+                }
+                return;
+            }
+
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+            {
+                BigDecimal value = row.getBigDecimal(name);
+                if (value == null)
+                {
+                    output.write(NULL);
+                }
+                else
+                {
+                    writeText(value.toPlainString(), output);
+                }
+                return;
+            }
+
+            default:
+            {
+                // numbers, dates and times already print in a form MySQL parses
+                String value = row.getString(name);
+                if (value == null)
+                {
+                    output.write(NULL);
+                }
+                else
+                {
+                    writeText(value, output);
+                }
+            }
+        }
+    }
+
+    private static void writeText(String value, OutputStream output) throws IOException
+    {
+        byte[] bytes = value.getBytes(UTF8);
+        writeEscaped(bytes, bytes.length, output);
+    }
+
+    private static void writeEscaped(byte[] bytes, int length, OutputStream output) throws IOException
+    {
+        int start = 0;
+        for (int i = 0; i < length; i++)
+        {
+            byte escape;
+            switch (bytes[i])
+            {
+                case '\\':
+                    escape = '\\';
+                    break;
+                case '\t':
+                    escape = 't';
+                    break;
+                case '\n':
+                    escape = 'n';
+                    break;
+                case '\r':
+                    escape = 'r';
+                    break;
+                case 0:
+                    escape = '0';
+                    break;
+                case 26:
+                    escape = 'Z';
+                    break;
+                default:
+                    continue;
+            }
+            output.write(bytes, start, i - start);
+            output.write('\\');
+            output.write(escape);
+            start = i + 1;
+        }
+        output.write(bytes, start, length - start);
+    }
+}
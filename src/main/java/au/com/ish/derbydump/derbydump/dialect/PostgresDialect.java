@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.dialect;
+
+import au.com.ish.derbydump.derbydump.metadata.Table;
+
+/**
+ * A PostgreSQL script with the data as INSERT statements.
+ *
+ */
+public class PostgresDialect implements Dialect
+{
+    @Override
+    public String getDeferConstraintsSQL()
+    {
+        return "SET CONSTRAINTS ALL DEFERRED;";
+    }
+
+    @Override
+    public String getRestoreConstraintsSQL()
+    {
+        return "SET CONSTRAINTS ALL IMMEDIATE;";
+    }
+
+    @Override
+    public String getDisableTableSQL(Table table)
+    {
+        return "ALTER TABLE " + table.getOutputName() + " DISABLE TRIGGER ALL;";
+    }
+
+    @Override
+    public String getEnableTableSQL(Table table)
+    {
+        return "ALTER TABLE " + table.getOutputName() + " ENABLE TRIGGER ALL;";
+    }
+
+    @Override
+    public String getBeginSQL()
+    {
+        return "BEGIN;";
+    }
+
+    @Override
+    public String getCommitSQL()
+    {
+        return "COMMIT;";
+    }
+
+    @Override
+    public String getDeleteSQL(Table table)
+    {
+        return "DELETE FROM " + table.getOutputName() + ";";
+    }
+
+    @Override
+    public String getAnalyzeSQL(Table table)
+    {
+        return "ANALYZE " + table.getOutputName() + ";";
+    }
+
+    @Override
+    public String getCleanupResource()
+    {
+        return "/cleanup.sql";
+    }
+
+    @Override
+    public DataFileWriter getDataFileWriter()
+    {
+        return null;
+    }
+}
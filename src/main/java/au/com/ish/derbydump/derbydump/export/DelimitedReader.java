@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.export;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the delimited files written by Derby's SYSCS_EXPORT procedures with the
+ * default delimiters: fields separated by commas, character values in double
+ * quotes with embedded quotes doubled, and NULL as an empty unquoted field.
+ *
+ */
+class DelimitedReader
+{
+    private final Reader in;
+    private final StringBuilder field = new StringBuilder();
+
+    DelimitedReader(Reader in)
+    {
+        this.in = in;
+    }
+
+    /**
+     * Read the next row.
+     *
+     * @param fields Receives the values, null for NULL
+     * @return false at the end of the file
+     * @throws IOException if the file does not hold the expected number of fields
+     */
+    boolean next(String[] fields) throws IOException
+    {
+        // a row of a single NULL is an empty line, so blank lines are not skipped
+        int c = in.read();
+        if (c < 0)
+        {
+            return false;
+        }
+
+        int index = 0;
+        while (true)
+        {
+            field.setLength(0);
+            boolean quoted = false;
+
+            if (c == '"')
+            {
+                quoted = true;
+                while (true)
+                {
+                    c = in.read();
+                    if (c < 0)
+                    {
+                        throw new IOException("Unterminated value in exported data");
+                    }
+                    if (c == '"')
+                    {
+                        c = in.read();
+                        if (c != '"')
+                        {
+                            break;
+                        }
+                    }
+                    field.append((char) c);
+                }
+            }
+            else
+            {
+                while (c >= 0 && c != ',' && c != '\n' && c != '\r')
+                {
+                    field.append((char) c);
+                    c = in.read();
+                }
+            }
+
+            if (index >= fields.length)
+            {
+                throw new IOException("Exported row has more than " + fields.length + " values");
+            }
+            fields[index++] = quoted || field.length() > 0 ? field.toString() : null;
+
+            if (c == ',')
+            {
+                c = in.read();
+                continue;
+            }
+            if (c == '\r')
+            {
+                // the rest of a Windows line end
+                in.read();
+                break;
+            }
+            if (c == '\n' || c < 0)
+            {
+                break;
+            }
+            throw new IOException("Unexpected character after a quoted value in exported data");
+        }
+
+        if (index != fields.length)
+        {
+            throw new IOException("Exported row has " + index + " values instead of " + fields.length);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,450 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.export;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import au.com.ish.derbydump.derbydump.lob.MemoryBudget;
+import au.com.ish.derbydump.derbydump.lob.SpillBuffer;
+import au.com.ish.derbydump.derbydump.metadata.Column;
+import au.com.ish.derbydump.derbydump.metadata.Table;
+
+/**
+ * Reads tables with Derby's own export procedures rather than row by row over
+ * JDBC, then turns the delimited files into INSERT statements.
+ *
+ * Derby writes one table at a time into a temporary file, while a pool of
+ * threads transcodes the tables already exported. Only a few tables are worked
+ * on ahead of the one being written out, so the temporary space stays bounded
+ * by the largest tables rather than the whole database.
+ *
+ * Tables with BLOB or CLOB columns are exported with their large objects in a
+ * separate file, which keeps binary values out of the hex encoding Derby
+ * would otherwise use.
+ *
+ */
+public class NativeExport
+{
+    private static final String CODESET = "UTF-8";
+    private static final int MEMORY_LIMIT = 4 * 1024 * 1024;
+
+    private final Connection connection;
+    private final String schema;
+    private final List<Table> tables;
+    private final int ahead;
+    private final int batchRows;
+    private final int commitInterval;
+    private final MemoryBudget budget;
+    private final File directory;
+
+    private final ExecutorService exporter = Executors.newSingleThreadExecutor();
+    private final ExecutorService transcoders;
+    private final Map<Table, Future<Result>> results = new HashMap<Table, Future<Result>>();
+    private int scheduled;
+
+    /**
+     * The INSERT statements of one table.
+     */
+    private static class Result
+    {
+        final SpillBuffer statements;
+        final long rowCount;
+
+        Result(SpillBuffer statements, long rowCount)
+        {
+            this.statements = statements;
+            this.rowCount = rowCount;
+        }
+    }
+
+    /**
+     * @param connection An embedded connection, used by this export only until {@link #close()}
+     * @param schema The schema of the tables
+     * @param tables The tables, in the order they are written
+     * @param threads The number of tables transcoded at the same time
+     * @param batchRows The number of rows in each INSERT statement
+     * @param commitInterval If above zero, commit after about this many rows
+     * @param budget The memory shared by the statements waiting to be written, or null for no limit but per table
+     */
+    public NativeExport(Connection connection, String schema, List<Table> tables, int threads, int batchRows, int commitInterval,
+            MemoryBudget budget) throws IOException
+    {
+        this.connection = connection;
+        this.schema = schema;
+        this.tables = tables;
+        this.ahead = Math.max(1, threads);
+        this.batchRows = batchRows;
+        this.commitInterval = commitInterval;
+        this.budget = budget;
+        this.transcoders = Executors.newFixedThreadPool(ahead);
+
+        directory = File.createTempFile("derbydump", ".export");
+        if (!directory.delete() || !directory.mkdir())
+        {
+            throw new IOException("Could not create temporary directory " + directory);
+        }
+    }
+
+    /**
+     * @return true if the connection is to an embedded database, where the
+     *         export procedures write files this process can read
+     */
+    public static boolean isEmbedded(Connection connection) throws SQLException
+    {
+        return connection.getMetaData().getDriverName().contains("Embedded");
+    }
+
+    /**
+     * Write the INSERT statements of the table, waiting for its export if needed.
+     *
+     * @return the number of rows written
+     */
+    public long write(Table table, OutputStream output) throws IOException, SQLException
+    {
+        int position = tables.indexOf(table);
+        while (scheduled < tables.size() && scheduled <= position + ahead)
+        {
+            schedule(tables.get(scheduled++));
+        }
+
+        Result result;
+        try
+        {
+            result = results.remove(table).get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the export of " + table.getTableName(), e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof SQLException)
+            {
+                throw (SQLException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+
+        try
+        {
+            result.statements.writeTo(output);
+        }
+        finally
+        {
+            result.statements.dispose();
+        }
+        return result.rowCount;
+    }
+
+    private void schedule(final Table table)
+    {
+        final int number = scheduled;
+        final Future<File[]> exported = exporter.submit(new Callable<File[]>()
+        {
+            @Override
+            public File[] call() throws Exception
+            {
+                return export(table, number);
+            }
+        });
+
+        results.put(table, transcoders.submit(new Callable<Result>()
+        {
+            @Override
+            public Result call() throws Exception
+            {
+                File[] files = exported.get();
+                try
+                {
+                    return transcode(table, files[0], files[1]);
+                }
+                finally
+                {
+                    files[0].delete();
+                    if (files[1] != null)
+                    {
+                        files[1].delete();
+                    }
+                }
+            }
+        }));
+    }
+
+    /**
+     * @return the data file and the large object file, which is null if the table has no large objects
+     */
+    private File[] export(Table table, int number) throws SQLException
+    {
+        System.err.println("Exporting " + table.getTableName() + "...");
+
+        File data = new File(directory, number + ".del");
+        File lobs = hasLobs(table) ? new File(directory, number + ".lob") : null;
+
+        String call = lobs == null
+                ? "CALL SYSCS_UTIL.SYSCS_EXPORT_QUERY(?, ?, NULL, NULL, ?)"
+                : "CALL SYSCS_UTIL.SYSCS_EXPORT_QUERY_LOBS_TO_EXTFILE(?, ?, NULL, NULL, ?, ?)";
+        try (CallableStatement statement = connection.prepareCall(call))
+        {
+            statement.setString(1, table.getSelectQuery(schema));
+            statement.setString(2, data.getAbsolutePath());
+            statement.setString(3, CODESET);
+            if (lobs != null)
+            {
+                statement.setString(4, lobs.getAbsolutePath());
+            }
+            statement.execute();
+        }
+        return new File[] { data, lobs };
+    }
+
+    private static boolean hasLobs(Table table)
+    {
+        for (Column column : table.getColumns())
+        {
+            if (isLob(column))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isLob(Column column)
+    {
+        return column.getColumnDataType() == Types.BLOB || column.getColumnDataType() == Types.CLOB;
+    }
+
+    /**
+     * Turn the exported rows into INSERT statements, batched the same way as rows read over JDBC.
+     */
+    private Result transcode(Table table, File data, File lobs) throws IOException, SQLException
+    {
+        List<Column> columns = table.getColumns();
+        String[] fields = new String[columns.size()];
+
+        SpillBuffer statements = new SpillBuffer(MEMORY_LIMIT, budget);
+        PrintStream output = new PrintStream(statements);
+        long rowCount = 0;
+
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(data), CODESET));
+                RandomAccessFile lobFile = lobs == null ? null : new RandomAccessFile(lobs, "r"))
+        {
+            DelimitedReader reader = new DelimitedReader(in);
+            int rowsInBatch = 0;
+            long rowsSinceCommit = 0;
+            while (reader.next(fields))
+            {
+                if (rowsInBatch % batchRows == 0)
+                {
+                    output.println(";");
+                    if (commitInterval > 0 && rowsSinceCommit >= commitInterval)
+                    {
+                        output.println("COMMIT;");
+                        output.println("BEGIN;");
+                        rowsSinceCommit = 0;
+                    }
+                    output.println(table.getInsertSQL());
+                }
+                else
+                {
+                    output.println(",");
+                }
+                rowCount++;
+                rowsInBatch++;
+                rowsSinceCommit++;
+
+                output.print("(");
+                for (int i = 0; i < fields.length; i++)
+                {
+                    if (i > 0)
+                    {
+                        output.print(",");
+                    }
+
+                    Column column = columns.get(i);
+                    if (lobFile != null && isLob(column) && fields[i] != null)
+                    {
+                        writeLob(column, fields[i], lobFile.getChannel(), output);
+                    }
+                    else
+                    {
+                        column.writeExported(fields[i], output);
+                    }
+                }
+                output.print(")");
+            }
+            output.println(";");
+        }
+        catch (IOException | SQLException | RuntimeException e)
+        {
+            statements.dispose();
+            throw e;
+        }
+
+        output.flush();
+        System.err.println("Transcoded " + table.getTableName() + ". " + rowCount + " rows.");
+        return new Result(statements, rowCount);
+    }
+
+    /**
+     * Write a large object from the separate file, referred to as "file.offset.length/".
+     */
+    private static void writeLob(Column column, String reference, FileChannel lobs, PrintStream output) throws IOException, SQLException
+    {
+        String location = reference.endsWith("/") ? reference.substring(0, reference.length() - 1) : reference;
+        int lengthStart = location.lastIndexOf('.');
+        int offsetStart = location.lastIndexOf('.', lengthStart - 1);
+        long offset = Long.parseLong(location.substring(offsetStart + 1, lengthStart));
+        long length = Long.parseLong(location.substring(lengthStart + 1));
+
+        if (length < 0)
+        {
+            column.writeExported(null, output);
+            return;
+        }
+
+        InputStream value = Channels.newInputStream(new BoundedChannel(lobs, offset, length));
+        if (column.getColumnDataType() == Types.BLOB)
+        {
+            Column.processBinaryData(value, output);
+        }
+        else if (column.getExporter() == null)
+        {
+            // a CLOB is escaped as it is read, rather than held whole
+            Column.processCharacterData(new InputStreamReader(value, CODESET), output);
+        }
+        else
+        {
+            column.writeExported(IOUtils.toString(value, CODESET), output);
+        }
+    }
+
+    /**
+     * Stop the export, and remove any temporary files.
+     */
+    public void close()
+    {
+        exporter.shutdownNow();
+        transcoders.shutdownNow();
+        for (Future<Result> result : results.values())
+        {
+            // a finished table holds statements which may have spilled to a temporary file
+            if (!result.cancel(true))
+            {
+                try
+                {
+                    result.get().statements.dispose();
+                }
+                catch (InterruptedException | ExecutionException | CancellationException e)
+                {
+                    // nothing was buffered
+                }
+            }
+        }
+        results.clear();
+
+        try
+        {
+            FileUtils.deleteDirectory(directory);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Could not remove temporary directory " + directory + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a range of a file without moving any shared position.
+     */
+    private static class BoundedChannel implements ReadableByteChannel
+    {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        BoundedChannel(FileChannel channel, long offset, long length)
+        {
+            this.channel = channel;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read(ByteBuffer target) throws IOException
+        {
+            if (position >= end)
+            {
+                return -1;
+            }
+            if (target.remaining() > end - position)
+            {
+                target.limit(target.position() + (int) (end - position));
+            }
+            int read = channel.read(target, position);
+            if (read > 0)
+            {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close()
+        {
+            // the file is closed with the table
+        }
+    }
+}
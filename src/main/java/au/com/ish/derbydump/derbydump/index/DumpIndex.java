@@ -0,0 +1,197 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.index;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Byte ranges of the sections written for each table, stored next to the dump
+ * so a single table can be copied out without reading the whole file.
+ *
+ * The file has one tab separated line per section: table, section, offset,
+ * length. It starts with the statements beginning and committing a
+ * transaction in the dump's dialect, as begin and commit lines, so a table can
+ * be replayed the way the dump itself loads it.
+ *
+ */
+public class DumpIndex
+{
+    public static final String SECTION_PRE_DATA = "pre";
+    public static final String SECTION_DATA = "data";
+    public static final String SECTION_POST_DATA = "post";
+    /**
+     * The calls setting the table's sequences, which need the derbydump_setval function defined around them
+     */
+    public static final String SECTION_SEQUENCES = "sequences";
+
+    private static final String HEADER = "# derbydump index v2";
+    private static final String HEADER_V1 = "# derbydump index v1";
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    // the statements of the PostgreSQL dumps which v1 indexes were written for
+    private String beginSQL = "BEGIN;";
+    private String commitSQL = "COMMIT;";
+
+    /**
+     * @param beginSQL The statement beginning a transaction in the dump
+     * @param commitSQL The statement committing it
+     */
+    public void setTransactionSQL(String beginSQL, String commitSQL)
+    {
+        this.beginSQL = beginSQL;
+        this.commitSQL = commitSQL;
+    }
+
+    public String getBeginSQL()
+    {
+        return beginSQL;
+    }
+
+    public String getCommitSQL()
+    {
+        return commitSQL;
+    }
+
+    /**
+     * Record a section of the dump.
+     *
+     * @param tableName The table as named in the output
+     * @param section One of the SECTION constants
+     * @param start Offset of the first byte of the section
+     * @param end Offset after the last byte of the section
+     */
+    public void add(String tableName, String section, long start, long end)
+    {
+        if (end > start)
+        {
+            entries.add(new Entry(tableName, section, start, end - start));
+        }
+    }
+
+    /**
+     * @return the sections of the table, in the order they appear in the dump
+     */
+    public List<Entry> getEntries(String tableName)
+    {
+        List<Entry> result = new ArrayList<Entry>();
+        for (Entry entry : entries)
+        {
+            if (entry.tableName.equalsIgnoreCase(tableName))
+            {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    public void write(File file) throws IOException
+    {
+        try (PrintStream out = new PrintStream(new FileOutputStream(file), false, "UTF-8"))
+        {
+            out.println(HEADER);
+            out.println("begin\t" + beginSQL);
+            out.println("commit\t" + commitSQL);
+            for (Entry entry : entries)
+            {
+                out.println(entry.tableName + "\t" + entry.section + "\t" + entry.offset + "\t" + entry.length);
+            }
+        }
+    }
+
+    public static DumpIndex read(File file) throws IOException
+    {
+        DumpIndex index = new DumpIndex();
+
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")))
+        {
+            String line = in.readLine();
+            if (!HEADER.equals(line) && !HEADER_V1.equals(line))
+            {
+                throw new IOException("Not a derbydump index: " + file);
+            }
+
+            while ((line = in.readLine()) != null)
+            {
+                String[] parts = line.split("\t");
+                if (parts.length == 2 && parts[0].equals("begin"))
+                {
+                    index.beginSQL = parts[1];
+                    continue;
+                }
+                if (parts.length == 2 && parts[0].equals("commit"))
+                {
+                    index.commitSQL = parts[1];
+                    continue;
+                }
+                if (parts.length != 4)
+                {
+                    throw new IOException("Invalid index line: " + line);
+                }
+                index.entries.add(new Entry(parts[0], parts[1], Long.parseLong(parts[2]), Long.parseLong(parts[3])));
+            }
+        }
+        return index;
+    }
+
+    /**
+     * A contiguous range of the dump.
+     */
+    public static class Entry
+    {
+        private final String tableName;
+        private final String section;
+        private final long offset;
+        private final long length;
+
+        Entry(String tableName, String section, long offset, long length)
+        {
+            this.tableName = tableName;
+            this.section = section;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public String getTableName()
+        {
+            return tableName;
+        }
+
+        public String getSection()
+        {
+            return section;
+        }
+
+        public long getOffset()
+        {
+            return offset;
+        }
+
+        public long getLength()
+        {
+            return length;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.lob;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A set of fixed length digests. The first entries are kept on the heap, once
+ * that bound is reached further entries go to an open addressing hash table in
+ * a temporary file.
+ *
+ */
+public class DigestIndex
+{
+    private static final int INITIAL_DISK_SLOTS = 1 << 16;
+
+    private final int digestLength;
+    private final int slotLength;
+    private final int memoryEntries;
+    private final Set<ByteBuffer> memory = new HashSet<ByteBuffer>();
+
+    private File diskFile;
+    private RandomAccessFile disk;
+    private long diskSlots;
+    private long diskEntries;
+    private final byte[] slot;
+
+    /**
+     * @param digestLength The length in bytes of every digest added
+     * @param memoryEntries The number of digests kept on the heap
+     */
+    public DigestIndex(int digestLength, int memoryEntries)
+    {
+        this.digestLength = digestLength;
+        // the first byte of each slot marks it as used
+        this.slotLength = digestLength + 1;
+        this.memoryEntries = memoryEntries;
+        this.slot = new byte[slotLength];
+    }
+
+    /**
+     * Adds the digest to the index.
+     *
+     * @param digest The digest to add
+     * @return true if the digest was not already present
+     * @throws IOException on error accessing the spill file
+     */
+    public boolean add(byte[] digest) throws IOException
+    {
+        if (digest.length != digestLength)
+        {
+            throw new IllegalArgumentException("Expected a digest of " + digestLength + " bytes");
+        }
+
+        ByteBuffer key = ByteBuffer.wrap(digest);
+        if (memory.contains(key))
+        {
+            return false;
+        }
+
+        // the heap set never shrinks, so nothing is on disk until it is full
+        if (memory.size() < memoryEntries)
+        {
+            memory.add(key);
+            return true;
+        }
+
+        if (disk == null)
+        {
+            openDisk(INITIAL_DISK_SLOTS);
+        }
+
+        long index = findSlot(digest);
+        if (index < 0)
+        {
+            return false;
+        }
+
+        writeSlot(index, digest);
+        diskEntries++;
+
+        if (diskEntries * 2 > diskSlots)
+        {
+            grow();
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of digests in the index
+     */
+    public long size()
+    {
+        return memory.size() + diskEntries;
+    }
+
+    /**
+     * @return the number of digests which were spilled to disk
+     */
+    public long getSpilledEntries()
+    {
+        return diskEntries;
+    }
+
+    /**
+     * Releases the spill file.
+     */
+    public void close()
+    {
+        if (disk != null)
+        {
+            try
+            {
+                disk.close();
+            }
+            catch (IOException e)
+            {
+                // nothing we can do about it, the file is deleted below
+            }
+            diskFile.delete();
+            disk = null;
+        }
+    }
+
+    /**
+     * Linear probing for the digest.
+     *
+     * @return the free slot where the digest belongs, or -1 if it is already present
+     */
+    private long findSlot(byte[] digest) throws IOException
+    {
+        long index = (hash(digest) & 0x7fffffffffffffffL) % diskSlots;
+
+        while (true)
+        {
+            disk.seek(index * slotLength);
+            disk.readFully(slot);
+
+            if (slot[0] == 0)
+            {
+                return index;
+            }
+
+            if (Arrays.equals(digest, Arrays.copyOfRange(slot, 1, slotLength)))
+            {
+                return -1;
+            }
+
+            index = (index + 1) % diskSlots;
+        }
+    }
+
+    private void writeSlot(long index, byte[] digest) throws IOException
+    {
+        disk.seek(index * slotLength);
+        disk.write(1);
+        disk.write(digest);
+    }
+
+    private void openDisk(long slots) throws IOException
+    {
+        diskFile = File.createTempFile("derbydump", ".idx");
+        diskFile.deleteOnExit();
+        disk = new RandomAccessFile(diskFile, "rw");
+        disk.setLength(slots * slotLength);
+        diskSlots = slots;
+        diskEntries = 0;
+    }
+
+    private void grow() throws IOException
+    {
+        File oldFile = diskFile;
+        RandomAccessFile old = disk;
+        long oldSlots = diskSlots;
+        long entries = diskEntries;
+
+        openDisk(oldSlots * 2);
+
+        byte[] digest = new byte[digestLength];
+        for (long i = 0; i < oldSlots; i++)
+        {
+            old.seek(i * slotLength);
+            old.readFully(slot);
+            if (slot[0] != 0)
+            {
+                System.arraycopy(slot, 1, digest, 0, digestLength);
+                writeSlot(findSlot(digest), digest);
+            }
+        }
+        diskEntries = entries;
+
+        old.close();
+        oldFile.delete();
+    }
+
+    private static long hash(byte[] digest)
+    {
+        // digests are already uniformly distributed so the leading bytes make a good hash
+        long hash = 0;
+        for (int i = 0; i < 8 && i < digest.length; i++)
+        {
+            hash = (hash << 8) | (digest[i] & 0xff);
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.lob;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Hex;
+
+import au.com.ish.derbydump.derbydump.metadata.Column;
+
+/**
+ * Writes each distinct binary value only once. The content is hashed while it
+ * is read, the first occurrence is queued for insertion into a staging table and
+ * every row refers to the staging table by hash.
+ *
+ */
+public class LobDeduplicator
+{
+    public static final String STAGING_TABLE = "derbydump_lob";
+
+    private final DigestIndex index;
+    private final int minSize;
+    private final int spillThreshold;
+    private final MemoryBudget budget;
+    private final List<PendingLob> pending = new ArrayList<PendingLob>();
+    private final MessageDigest digest;
+    private final byte[] buf = new byte[8192];
+
+    private long duplicates;
+    private long duplicateBytes;
+
+    /**
+     * @param minSize Values shorter than this are written inline
+     * @param memoryEntries The number of hashes kept on the heap before spilling the index to disk
+     * @param spillThreshold The number of bytes of a single value kept on the heap before spilling it to disk
+     * @param budget The memory shared by all buffered values, or null for no limit but spillThreshold
+     */
+    public LobDeduplicator(int minSize, int memoryEntries, int spillThreshold, MemoryBudget budget)
+    {
+        this.minSize = minSize;
+        this.spillThreshold = spillThreshold;
+        this.budget = budget;
+
+        try
+        {
+            this.digest = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new RuntimeException(e);
+        }
+        this.index = new DigestIndex(digest.getDigestLength(), memoryEntries);
+    }
+
+    /**
+     * @return the statement creating the staging table, to be run before any data
+     */
+    public String getCreateTableSQL()
+    {
+        return "CREATE TEMPORARY TABLE " + STAGING_TABLE + " (hash CHAR(40) PRIMARY KEY, data BYTEA);";
+    }
+
+    /**
+     * @return the statement removing the staging table once all data is loaded
+     */
+    public String getDropTableSQL()
+    {
+        return "DROP TABLE " + STAGING_TABLE + ";";
+    }
+
+    /**
+     * Write the value as a reference into the staging table. If the value has not
+     * been seen before it is queued, and {@link #writePending(PrintStream)} must be
+     * called before the statement containing the reference.
+     *
+     * @param blob The binary value, not null
+     * @param output Where the reference is written
+     * @throws IOException on error reading from stream
+     */
+    public void writeReference(InputStream blob, PrintStream output) throws SQLException, IOException
+    {
+        SpillBuffer buffer = new SpillBuffer(spillThreshold, budget);
+        boolean keep = false;
+        try
+        {
+            digest.reset();
+            int len;
+            while ((len = blob.read(buf)) > 0)
+            {
+                digest.update(buf, 0, len);
+                buffer.write(buf, 0, len);
+            }
+
+            if (buffer.size() < minSize)
+            {
+                try (InputStream in = buffer.getInputStream())
+                {
+                    Column.processBinaryData(in, output);
+                }
+                return;
+            }
+
+            byte[] hash = digest.digest();
+            String hex = Hex.encodeHexString(hash);
+
+            if (index.add(hash))
+            {
+                pending.add(new PendingLob(hex, buffer));
+                keep = true;
+            }
+            else
+            {
+                duplicates++;
+                duplicateBytes += buffer.size();
+            }
+
+            output.print("(SELECT data FROM " + STAGING_TABLE + " WHERE hash = '" + hex + "')");
+        }
+        finally
+        {
+            if (!keep)
+            {
+                buffer.dispose();
+            }
+        }
+    }
+
+    /**
+     * @return true if there are values which have to be written with {@link #writePending(PrintStream)}
+     */
+    public boolean hasPending()
+    {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Write the staging table inserts for values seen for the first time.
+     *
+     * @param output Where the statements are written
+     * @throws IOException on error reading a spilled value
+     */
+    public void writePending(PrintStream output) throws SQLException, IOException
+    {
+        for (PendingLob lob : pending)
+        {
+            try (InputStream in = lob.buffer.getInputStream())
+            {
+                output.print("INSERT INTO " + STAGING_TABLE + " (hash, data) VALUES ('" + lob.hash + "',");
+                Column.processBinaryData(in, output);
+                output.println(");");
+            }
+            finally
+            {
+                lob.buffer.dispose();
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * @return the number of values written as a reference to an earlier copy
+     */
+    public long getDuplicates()
+    {
+        return duplicates;
+    }
+
+    /**
+     * @return the number of bytes which did not have to be written again
+     */
+    public long getDuplicateBytes()
+    {
+        return duplicateBytes;
+    }
+
+    /**
+     * @return the number of distinct values written to the staging table
+     */
+    public long getDistinctValues()
+    {
+        return index.size();
+    }
+
+    /**
+     * Releases any temporary files.
+     */
+    public void close()
+    {
+        for (PendingLob lob : pending)
+        {
+            lob.buffer.dispose();
+        }
+        pending.clear();
+        index.close();
+    }
+
+    private static class PendingLob
+    {
+        private final String hash;
+        private final SpillBuffer buffer;
+
+        PendingLob(String hash, SpillBuffer buffer)
+        {
+            this.hash = hash;
+            this.buffer = buffer;
+        }
+    }
+}
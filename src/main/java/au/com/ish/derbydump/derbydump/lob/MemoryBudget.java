@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.lob;
+
+/**
+ * The heap which buffered output may use, shared by every buffer of every dump
+ * running in this process. A buffer reserves its bytes before keeping them in
+ * memory, and spills to disk instead once the budget is used up.
+ *
+ * Large objects are otherwise streamed. The values still read whole, and not
+ * counted here, are the binary values of a columnar row group, LONG VARCHAR
+ * values copied by JdbcCopy, which are at most 32700 characters, and XML
+ * values read back from an export file.
+ *
+ */
+public class MemoryBudget
+{
+    private final long limit;
+    private long used;
+    private long peak;
+    private long spills;
+    private long spilledBytes;
+
+    /**
+     * @param limit The number of buffered bytes allowed on the heap at the same time
+     */
+    public MemoryBudget(long limit)
+    {
+        this.limit = limit;
+    }
+
+    /**
+     * @return true if the bytes were reserved, false if they would exceed the budget
+     */
+    public synchronized boolean reserve(long bytes)
+    {
+        if (used + bytes > limit)
+        {
+            return false;
+        }
+        used += bytes;
+        peak = Math.max(peak, used);
+        return true;
+    }
+
+    /**
+     * Return bytes reserved earlier.
+     */
+    public synchronized void release(long bytes)
+    {
+        used -= bytes;
+    }
+
+    /**
+     * Count a buffer which was moved to disk, once it is released.
+     *
+     * @param bytes The size of the buffer
+     */
+    public synchronized void spilled(long bytes)
+    {
+        spills++;
+        spilledBytes += bytes;
+    }
+
+    public long getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     * @return the most bytes reserved at any one time
+     */
+    public synchronized long getPeak()
+    {
+        return peak;
+    }
+
+    /**
+     * @return the number of buffers which moved to disk
+     */
+    public synchronized long getSpills()
+    {
+        return spills;
+    }
+
+    /**
+     * @return the bytes of the buffers which moved to disk
+     */
+    public synchronized long getSpilledBytes()
+    {
+        return spilledBytes;
+    }
+}
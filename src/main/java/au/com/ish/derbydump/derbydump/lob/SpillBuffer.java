@@ -0,0 +1,219 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.lob;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Holds a stream of bytes in memory until it grows past a threshold, after
+ * which everything is moved to a temporary file.
+ *
+ * With a {@link MemoryBudget} the buffer also spills as soon as the budget
+ * shared with every other buffer is used up, so the heap stays bounded however
+ * many buffers are filled at the same time.
+ *
+ */
+public class SpillBuffer extends OutputStream
+{
+    private final int memoryLimit;
+    private final MemoryBudget budget;
+    private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+    private File file;
+    private RandomAccessFile fileAccess;
+    private OutputStream fileOutput;
+    private long size;
+
+    /**
+     * @param memoryLimit The number of bytes kept on the heap before spilling to disk
+     */
+    public SpillBuffer(int memoryLimit)
+    {
+        this(memoryLimit, null);
+    }
+
+    /**
+     * @param memoryLimit The number of bytes kept on the heap before spilling to disk
+     * @param budget The budget the bytes on the heap are reserved from, or null for none
+     */
+    public SpillBuffer(int memoryLimit, MemoryBudget budget)
+    {
+        this.memoryLimit = memoryLimit;
+        this.budget = budget;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        if (fileOutput == null && (memory.size() + len > memoryLimit || (budget != null && !budget.reserve(len))))
+        {
+            spill();
+        }
+
+        if (fileOutput != null)
+        {
+            fileOutput.write(b, off, len);
+        }
+        else
+        {
+            memory.write(b, off, len);
+        }
+        size += len;
+    }
+
+    private void spill() throws IOException
+    {
+        // deleted by dispose(), deleteOnExit() would keep every path until the JVM ends
+        file = File.createTempFile("derbydump", ".lob");
+        fileAccess = new RandomAccessFile(file, "rw");
+        fileOutput = new BufferedOutputStream(Channels.newOutputStream(fileAccess.getChannel()));
+        memory.writeTo(fileOutput);
+        memory = null;
+        if (budget != null)
+        {
+            budget.release(size);
+        }
+    }
+
+    /**
+     * @return the number of bytes written so far
+     */
+    public long size()
+    {
+        return size;
+    }
+
+    /**
+     * @return true if the content has been moved to a temporary file
+     */
+    public boolean isSpilled()
+    {
+        return file != null;
+    }
+
+    /**
+     * Reads back everything written to this buffer. No further writes are allowed.
+     *
+     * @return a stream over the buffered content
+     * @throws IOException
+     */
+    public InputStream getInputStream() throws IOException
+    {
+        if (fileOutput == null)
+        {
+            return new ByteArrayInputStream(memory.toByteArray());
+        }
+
+        fileOutput.flush();
+        return new BufferedInputStream(Channels.newInputStream(fileAccess.getChannel().position(0)));
+    }
+
+    /**
+     * Copies everything written to this buffer to the output, without reading a
+     * spilled buffer back onto the heap. No further writes are allowed.
+     *
+     * @throws IOException
+     */
+    public void writeTo(OutputStream output) throws IOException
+    {
+        if (fileOutput == null)
+        {
+            memory.writeTo(output);
+            return;
+        }
+
+        fileOutput.flush();
+        WritableByteChannel target = output instanceof FileOutputStream ? ((FileOutputStream) output).getChannel() : Channels.newChannel(output);
+        FileChannel source = fileAccess.getChannel();
+        long position = 0;
+        while (position < size)
+        {
+            long transferred = source.transferTo(position, size - position, target);
+            if (transferred == 0 && position >= source.size())
+            {
+                throw new IOException("Spill file " + file + " ends at " + source.size() + " before " + size);
+            }
+            position += transferred;
+        }
+    }
+
+    /**
+     * Empties the buffer so it can be filled again, releasing the temporary file
+     * or the reserved memory. The heap array is kept for the next content; it
+     * grows no larger than the memory limit.
+     */
+    public void reset()
+    {
+        ByteArrayOutputStream kept = memory;
+        dispose();
+        memory = kept == null ? new ByteArrayOutputStream() : kept;
+        memory.reset();
+        size = 0;
+    }
+
+    /**
+     * Releases the temporary file or the reserved memory.
+     */
+    public void dispose()
+    {
+        if (fileAccess != null)
+        {
+            try
+            {
+                fileAccess.close();
+            }
+            catch (IOException e)
+            {
+                // nothing we can do about it, the file is deleted below
+            }
+            fileAccess = null;
+            fileOutput = null;
+        }
+
+        if (file != null)
+        {
+            file.delete();
+            file = null;
+            if (budget != null)
+            {
+                budget.spilled(size);
+            }
+        }
+        else if (memory != null && budget != null)
+        {
+            budget.release(size);
+        }
+        memory = null;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.main;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.derby.jdbc.EmbeddedDriver;
+
+import au.com.ish.derbydump.derbydump.columnar.ColumnarWriter;
+import au.com.ish.derbydump.derbydump.config.Configuration;
+import au.com.ish.derbydump.derbydump.metadata.Database;
+import au.com.ish.derbydump.derbydump.metadata.Table;
+
+/**
+ * Writes each table of a Derby schema to a columnar file for analytics, in the
+ * format described by {@link ColumnarWriter}. The same table options as for a
+ * dump apply.
+ *
+ */
+public class ColumnarExport
+{
+    public static final String FILE_EXTENSION = ".dcol";
+
+    private final Configuration config;
+
+    public ColumnarExport(Configuration config)
+    {
+        this.config = config;
+    }
+
+    /**
+     * Export every table of the configured schema to columnar.dir.
+     */
+    public void execute() throws SQLException, IOException
+    {
+        new EmbeddedDriver();
+        String schema = config.getSchemaName();
+
+        File directory = new File(config.getColumnarDir());
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Could not create " + directory);
+        }
+
+        try (Connection connection = DriverManager.getConnection(config.getDerbyUrl()))
+        {
+            System.err.println("Resolving database structure (" + schema + ")...");
+            Database database = new MetadataReader(config.getTypeExporters()).readDatabase(connection, schema, config.getTableFilter());
+            for (Table table : database.getTables())
+            {
+                DerbyDump.configureTable(config, table);
+                if (!table.isExcluded())
+                {
+                    exportTable(table, connection, schema, new File(directory, table.getOutputName() + FILE_EXTENSION));
+                }
+            }
+        }
+        System.err.println("Export done.");
+    }
+
+    private void exportTable(Table table, Connection connection, String schema, File file) throws SQLException, IOException
+    {
+        System.err.println("Table " + table.getTableName() + "...");
+
+        boolean finished = false;
+        try (Statement statement = connection.createStatement();
+                ResultSet dataRows = statement.executeQuery(table.getSelectQuery(schema));
+                ColumnarWriter writer = new ColumnarWriter(table, new FileOutputStream(file), config.getColumnarRowGroupRows(),
+                        config.getColumnarRowGroupBytes(), config.getColumnarDictionaryLimit()))
+        {
+            while (dataRows.next())
+            {
+                writer.addRow(dataRows);
+            }
+            writer.finish();
+            finished = true;
+            System.err.println("Exported " + table.getTableName() + ". " + writer.getRowCount() + " rows.");
+        }
+        finally
+        {
+            if (!finished)
+            {
+                file.delete();
+            }
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        Configuration config = new Configuration();
+
+        if (config.getDerbyUrl() == null || config.getSchemaName() == null || config.getColumnarDir() == null)
+        {
+            System.err.println("db.url, db.schemaName and columnar.dir are required");
+            System.exit(1);
+            return;
+        }
+
+        try
+        {
+            new ColumnarExport(config).execute();
+        }
+        catch (Throwable e)
+        {
+            System.err.println("Error exporting tables");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
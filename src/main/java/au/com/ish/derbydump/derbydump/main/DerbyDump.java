@@ -16,6 +16,7 @@
 
 package au.com.ish.derbydump.derbydump.main;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -23,167 +24,1103 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.derby.jdbc.EmbeddedDriver;
 
+import au.com.ish.derbydump.derbydump.checksum.ChecksumOutputStream;
+import au.com.ish.derbydump.derbydump.checksum.TableChecksum;
 import au.com.ish.derbydump.derbydump.config.Configuration;
+import au.com.ish.derbydump.derbydump.ddl.SchemaWriter;
+import au.com.ish.derbydump.derbydump.dialect.DataFileWriter;
+import au.com.ish.derbydump.derbydump.dialect.Dialect;
+import au.com.ish.derbydump.derbydump.export.NativeExport;
+import au.com.ish.derbydump.derbydump.index.DumpIndex;
+import au.com.ish.derbydump.derbydump.lob.LobDeduplicator;
+import au.com.ish.derbydump.derbydump.lob.MemoryBudget;
+import au.com.ish.derbydump.derbydump.lob.SpillBuffer;
 import au.com.ish.derbydump.derbydump.metadata.Column;
 import au.com.ish.derbydump.derbydump.metadata.Database;
 import au.com.ish.derbydump.derbydump.metadata.Table;
+import au.com.ish.derbydump.derbydump.sample.Sampler;
+import au.com.ish.derbydump.derbydump.sample.TableSampler;
+import au.com.ish.derbydump.derbydump.throttle.Throttle;
 
 public class DerbyDump
 {
     private final static int MAX_ALLOWED_ROWS = 100;
+    private final static int MAX_KEY_BATCH_ROWS = 4 * MAX_ALLOWED_ROWS;
     private final PrintStream output;
+    private final ChecksumOutputStream checksumOutput;
+    private final List<TableChecksum> checksums = new ArrayList<TableChecksum>();
+    private final CountingOutputStream counter;
+    private DumpIndex index;
+    private final List<SequenceTracker> sequences = new ArrayList<SequenceTracker>();
+    private final List<TableProfile> profiles = new ArrayList<TableProfile>();
+    private Sampler sampler;
+    private Throttle throttle;
+    private NativeExport nativeExport;
+    private Dialect dialect;
+    private DataFileWriter dataFileWriter;
+    private File dataDir;
+    private long dataFileBytes;
+    private MemoryBudget sharedBudget;
+    private MemoryBudget memoryBudget;
+
+    /**
+     * The first table of each dependency layer and the number of its layer
+     */
+    private final Map<Table, Integer> layerStarts = new HashMap<Table, Integer>();
 
     private Configuration config;
+    private DumpListener listener;
+    private volatile boolean cancelled;
+
+    public DerbyDump(OutputStream output, Configuration config)
+    {
+        this.config = config;
+
+        counter = new CountingOutputStream(new BufferedOutputStream(output, config.getBufferSize() * 1024));
+        OutputStream buffered = counter;
+        if (config.getChecksums())
+        {
+            checksumOutput = new ChecksumOutputStream(buffered);
+            buffered = checksumOutput;
+        }
+        else
+        {
+            checksumOutput = null;
+        }
+        this.output = new PrintStream(buffered);
+    }
+
+    /**
+     * Dump to a channel. Blocking writes to the channel hold back the dump.
+     */
+    public DerbyDump(WritableByteChannel output, Configuration config)
+    {
+        this(Channels.newOutputStream(output), config);
+    }
+
+    /**
+     * Dump to a sink which is handed each chunk of output as it is produced.
+     */
+    public DerbyDump(DumpSink output, Configuration config)
+    {
+        this(new SinkOutputStream(output), config);
+    }
+
+    /**
+     * @param listener notified of each table and row, may be null
+     */
+    public void setListener(DumpListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * @param budget the memory budget to share with other dumps running at the same
+     *            time, by default each dump has its own
+     */
+    public void setMemoryBudget(MemoryBudget budget)
+    {
+        this.sharedBudget = budget;
+    }
+
+    /**
+     * Stop a running dump. It may be called from any thread; the dump stops at
+     * the next row and {@link #execute()} throws a {@link CancellationException}.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * Open a connection to the configured database and dump it.
+     */
+    public void execute() throws IOException, SQLException
+    {
+        new EmbeddedDriver();
+
+        try (Connection connection = DriverManager.getConnection(config.getDerbyUrl()))
+        {
+            execute(connection);
+        }
+    }
+
+    /**
+     * Dump the configured schema through an existing connection, which is left open.
+     */
+    public void execute(Connection connection) throws IOException, SQLException
+    {
+        readMetaData(connection, config.getSchemaName());
+    }
+
+    void readMetaData(Connection connection, String schema) throws IOException, SQLException
+    {
+        // creating a skeleton of tables and columns present in the database
+        MetadataReader metadata = new MetadataReader(config.getTypeExporters());
+        System.err.println("Resolving database structure (" + schema + ")...");
+
+        Database database = metadata.readDatabase(connection, schema, config.getTableFilter());
+        List<Table> tables = database.getTables();
+        for (Table table : tables)
+        {
+            configureTable(config, table);
+        }
+
+        layerStarts.clear();
+        if (config.getDependencyOrder())
+        {
+            List<List<Table>> layers = database.getDependencyLayers();
+            tables = new ArrayList<Table>();
+            for (List<Table> layer : layers)
+            {
+                layerStarts.put(layer.get(0), layerStarts.size() + 1);
+                tables.addAll(layer);
+            }
+            System.err.println("Ordered " + tables.size() + " tables in " + layers.size() + " dependency layers.");
+
+            if (config.getConstraintsEnabled() && database.hasCycles())
+            {
+                System.err.println("Warning: the foreign keys form a cycle, loading with constraints enabled may fail.");
+            }
+        }
+        else if (config.getSampling())
+        {
+            // kept child rows depend on which parent rows were kept
+            tables = database.getTablesInDependencyOrder();
+        }
+
+        if (config.getSampling())
+        {
+            sampler = new Sampler(config.getSampleFraction(), config.getSampleMaxRows(), tables);
+        }
+        else
+        {
+            sampler = null;
+        }
+        getInternalData(tables, connection, schema);
+    }
+
+    /**
+     * Apply the configured row condition and column projection to the table.
+     */
+    static void configureTable(Configuration config, Table table)
+    {
+        table.setWhereClause(config.getTableWhere(table.getTableName()));
+        table.setOrderedByKey(config.getKeyOrder());
+
+        List<String> included = config.getTableColumns(table.getTableName());
+        List<String> excluded = config.getTableExcludedColumns(table.getTableName());
+        if (included.isEmpty() && excluded.isEmpty())
+        {
+            return;
+        }
+
+        List<Column> retained = new ArrayList<Column>();
+        for (Column column : table.getColumns())
+        {
+            if ((included.isEmpty() || containsIgnoreCase(included, column.getColumnName()))
+                    && !containsIgnoreCase(excluded, column.getColumnName()))
+            {
+                retained.add(column);
+            }
+        }
+
+        for (String name : included)
+        {
+            if (!containsColumn(table.getColumns(), name))
+            {
+                System.err.println("Table " + table.getTableName() + " has no column " + name);
+            }
+        }
+
+        if (retained.isEmpty())
+        {
+            throw new IllegalArgumentException("No columns left to dump for table " + table.getTableName());
+        }
+        table.projectColumns(retained);
+    }
+
+    private static boolean containsIgnoreCase(List<String> names, String name)
+    {
+        for (String candidate : names)
+        {
+            if (candidate.equalsIgnoreCase(name))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsColumn(List<Column> columns, String name)
+    {
+        for (Column column : columns)
+        {
+            if (column.getColumnName().equalsIgnoreCase(name))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read data from each {@link Table} and add it to
+     * the output.
+     * 
+     * @param tables A list of tables to read from
+     * @param connection The database connection used to fetch the data
+     * @param schema The name of the schema we are using
+     * @throws SQLException 
+     * @throws IOException 
+     */
+    private void getInternalData(List<Table> tables, Connection connection, String schema) throws SQLException, IOException
+    {
+        System.err.println("Fetching database data...");
+
+        checksums.clear();
+        sequences.clear();
+        profiles.clear();
+        index = null;
+
+        memoryBudget = sharedBudget != null ? sharedBudget : new MemoryBudget(config.getMemoryBudget());
+
+        dialect = config.getDialect();
+        dataFileWriter = dialect.getDataFileWriter();
+        dataFileBytes = 0;
+        if (dataFileWriter != null)
+        {
+            if (config.getDataDir() == null)
+            {
+                throw new IllegalArgumentException("Data files need an outputPath or output.dataDir");
+            }
+            dataDir = new File(config.getDataDir());
+            if (!dataDir.isDirectory() && !dataDir.mkdirs())
+            {
+                throw new IOException("Could not create " + dataDir);
+            }
+            for (String option : config.getIgnoredOptions())
+            {
+                System.err.println("Ignoring " + option + ", it does not apply to data files.");
+            }
+        }
+
+        if (config.getIndex())
+        {
+            if (config.getIndexPath() == null)
+            {
+                System.err.println("No outputPath or output.indexPath specified, not writing an index.");
+            }
+            else if (config.getDedupLobs())
+            {
+                // the data of one table may refer to staging rows written with any other table
+                System.err.println("Deduplicated dumps cannot be extracted by table, not writing an index.");
+            }
+            else
+            {
+                index = new DumpIndex();
+                index.setTransactionSQL(dialect.getBeginSQL(), dialect.getCommitSQL());
+            }
+        }
+
+        SchemaWriter schemaWriter = null;
+        if (config.getSchema())
+        {
+            schemaWriter = new SchemaWriter(tables);
+            for (Table table : tables)
+            {
+                if (!table.isExcluded())
+                {
+                    long start = counter.getByteCount();
+                    output.println(schemaWriter.getCreateTableSQL(table));
+                    addToIndex(table, DumpIndex.SECTION_PRE_DATA, start);
+                }
+            }
+        }
+
+        // with constraints enabled the restore relies on parents being loaded first
+        boolean deferred = !config.getConstraintsEnabled();
+        if (deferred)
+        {
+            output.println(dialect.getDeferConstraintsSQL());
+        }
+
+        if (config.getDropIndexes())
+        {
+            writeLoadedTables(tables);
+            writeResource("/bulkload-pre.sql");
+        }
+
+        if (!deferred && config.getTruncateTables())
+        {
+            // children are emptied before the parents they refer to
+            List<Table> reversed = new ArrayList<Table>(tables);
+            Collections.reverse(reversed);
+            for (Table table : reversed)
+            {
+                if (!table.isExcluded())
+                {
+                    long start = counter.getByteCount();
+                    output.println(dialect.getDeleteSQL(table));
+                    addToIndex(table, DumpIndex.SECTION_PRE_DATA, start);
+                }
+            }
+        }
+
+        for (Table table : tables)
+        {
+            if (!table.isExcluded())
+            {
+                long start = counter.getByteCount();
+                if (deferred)
+                {
+                    output.println(dialect.getDisableTableSQL(table));
+                }
+                if (config.getUnloggedTables())
+                {
+                    output.println("ALTER TABLE " + table.getOutputName() + " SET UNLOGGED;");
+                }
+                addToIndex(table, DumpIndex.SECTION_PRE_DATA, start);
+            }
+        }
+
+        LobDeduplicator lobs = null;
+        if (config.getDedupLobs())
+        {
+            lobs = new LobDeduplicator(config.getDedupLobsMinSize(), config.getDedupLobsMemoryEntries(), config.getDedupLobsSpillThreshold(), memoryBudget);
+            output.println(lobs.getCreateTableSQL());
+        }
+
+        // below zero the whole data section is one transaction, otherwise each table gets its own
+        int commitInterval = config.getCommitInterval();
+        if (commitInterval < 0)
+        {
+            output.println(dialect.getBeginSQL());
+        }
+
+        ObjectName throttleName = null;
+        if (config.getThrottling())
+        {
+            String controlFile = config.getThrottleControlFile();
+            throttle = new Throttle(config.getThrottleRowsPerSecond(), config.getThrottleBytesPerSecond(),
+                    config.getThrottleLatencyThresholdMicros(), controlFile == null ? null : new File(controlFile));
+            if (config.getThrottleJmx())
+            {
+                throttleName = registerThrottle(schema);
+            }
+        }
+        else
+        {
+            throttle = null;
+        }
+
+        nativeExport = null;
+        if (config.getExportBackend())
+        {
+            String unsupported = getUnsupportedByExport(connection, lobs);
+            if (unsupported == null)
+            {
+                List<Table> dataTables = new ArrayList<Table>();
+                for (Table table : tables)
+                {
+                    if (!table.isExcluded())
+                    {
+                        dataTables.add(table);
+                    }
+                }
+                nativeExport = new NativeExport(connection, schema, dataTables, config.getExportThreads(), MAX_ALLOWED_ROWS, commitInterval, memoryBudget);
+            }
+            else
+            {
+                System.err.println("Reading rows over JDBC, the export backend does not support " + unsupported + ".");
+            }
+        }
+
+        try
+        {
+            for (Table table : tables)
+            {
+                if (!table.isExcluded())
+                {
+                    Integer layer = layerStarts.get(table);
+                    if (layer != null)
+                    {
+                        // the tables of one layer do not refer to each other and can be restored concurrently
+                        output.println("-- derbydump dependency layer " + layer);
+                    }
+
+                    if (commitInterval >= 0)
+                    {
+                        output.println(dialect.getBeginSQL());
+                    }
+
+                    long start = counter.getByteCount();
+                    getTableData(table, connection, schema, lobs, commitInterval);
+                    addToIndex(table, DumpIndex.SECTION_DATA, start);
+
+                    if (commitInterval >= 0)
+                    {
+                        output.println(dialect.getCommitSQL());
+                    }
+                }
+            }
+        }
+        finally
+        {
+            if (lobs != null)
+            {
+                lobs.close();
+            }
+            if (throttleName != null)
+            {
+                unregisterThrottle(throttleName);
+            }
+            if (nativeExport != null)
+            {
+                nativeExport.close();
+                nativeExport = null;
+            }
+        }
+
+        if (commitInterval < 0)
+        {
+            output.println(dialect.getCommitSQL());
+        }
+
+        if (lobs != null)
+        {
+            output.println(lobs.getDropTableSQL());
+            System.err.println("Deduplicated " + lobs.getDuplicates() + " binary values (" + lobs.getDuplicateBytes()
+                    + " bytes) against " + lobs.getDistinctValues() + " distinct values.");
+        }
+
+        for (Table table : tables)
+        {
+            if (!table.isExcluded())
+            {
+                long start = counter.getByteCount();
+                if (deferred)
+                {
+                    output.println(dialect.getEnableTableSQL(table));
+                }
+                if (config.getUnloggedTables())
+                {
+                    output.println("ALTER TABLE " + table.getOutputName() + " SET LOGGED;");
+                }
+                addToIndex(table, DumpIndex.SECTION_POST_DATA, start);
+            }
+        }
+
+        if (schemaWriter != null)
+        {
+            // indexes are built once over the loaded data, foreign keys once every primary key exists
+            System.err.println("Writing keys, indexes and constraints");
+            for (Table table : tables)
+            {
+                if (!table.isExcluded())
+                {
+                    long start = counter.getByteCount();
+                    for (String statement : schemaWriter.getConstraintSQL(table))
+                    {
+                        output.println(statement);
+                    }
+                    addToIndex(table, DumpIndex.SECTION_POST_DATA, start);
+                }
+            }
+            for (Table table : tables)
+            {
+                if (!table.isExcluded())
+                {
+                    long start = counter.getByteCount();
+                    for (String statement : schemaWriter.getForeignKeySQL(table))
+                    {
+                        output.println(statement);
+                    }
+                    addToIndex(table, DumpIndex.SECTION_POST_DATA, start);
+                }
+            }
+        }
+
+        if (config.getDropIndexes())
+        {
+            // foreign keys are only added back once every table is logged again
+            writeResource("/bulkload-post.sql");
+        }
+
+        if (config.getAnalyze())
+        {
+            for (Table table : tables)
+            {
+                if (!table.isExcluded())
+                {
+                    long start = counter.getByteCount();
+                    output.println(dialect.getAnalyzeSQL(table));
+                    addToIndex(table, DumpIndex.SECTION_POST_DATA, start);
+                }
+            }
+        }
+
+        if (deferred)
+        {
+            output.println(dialect.getRestoreConstraintsSQL());
+        }
+
+        if (config.getComputedSequences())
+        {
+            System.err.println("Writing sequence values");
+            writeResource(SequenceTracker.FUNCTION_RESOURCE);
+            for (SequenceTracker sequence : sequences)
+            {
+                long start = counter.getByteCount();
+                sequence.write(output);
+                if (index != null)
+                {
+                    index.add(sequence.getTableName(), DumpIndex.SECTION_SEQUENCES, start, counter.getByteCount());
+                }
+            }
+            output.println(SequenceTracker.DROP_FUNCTION_SQL);
+        }
+        else if (dialect.getCleanupResource() != null)
+        {
+            System.err.println("Writing cleanup procedures");
+            writeResource(dialect.getCleanupResource());
+        }
+
+        if (checksumOutput != null)
+        {
+            // the footer is last so that a truncated dump has no checksums to match
+            output.println("-- derbydump table checksums, verify with DumpVerifier");
+            for (TableChecksum checksum : checksums)
+            {
+                output.println(checksum.toFooter());
+            }
+        }
+
+        output.flush();
+        checkOutput();
+
+        for (TableProfile profile : profiles)
+        {
+            profile.report(System.err);
+        }
+
+        if (memoryBudget.getSpills() > 0)
+        {
+            System.err.println("Spilled " + memoryBudget.getSpills() + " buffers (" + memoryBudget.getSpilledBytes()
+                    + " bytes) to disk to stay within the memory budget of " + memoryBudget.getLimit() + " bytes.");
+        }
+
+        if (index != null)
+        {
+            System.err.println("Writing index to " + config.getIndexPath());
+            index.write(new File(config.getIndexPath()));
+        }
+
+        System.err.println("Reading done.");
+    }
+
+    /**
+     * Record the tables being loaded, for the scripts which drop and restore their indexes.
+     */
+    private void writeLoadedTables(List<Table> tables)
+    {
+        output.println("CREATE TEMPORARY TABLE derbydump_tables (name TEXT);");
+        for (Table table : tables)
+        {
+            if (!table.isExcluded())
+            {
+                output.println("INSERT INTO derbydump_tables (name) VALUES ('" + table.getOutputName().replace("'", "''") + "');");
+            }
+        }
+    }
 
-    public DerbyDump(OutputStream output, Configuration config)
+    private void writeResource(String name)
     {
-        this.output = new PrintStream(output);
-        this.config = config;
+        URL resource = getClass().getResource(name);
+        try (InputStream in = resource.openStream())
+        {
+            IOUtils.copy(in, output);
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException("Error reading " + name, e);
+        }
     }
 
-    public void execute() throws IOException, SQLException
+    private void checkCancelled()
     {
-        readMetaData(config.getSchemaName());
+        if (cancelled)
+        {
+            throw new CancellationException("Dump cancelled");
+        }
     }
 
-    void readMetaData(String schema) throws IOException, SQLException
+    /**
+     * PrintStream swallows exceptions, so look for them after each table.
+     */
+    private void checkOutput() throws IOException
     {
-        // creating a skeleton of tables and columns present in the database
-        MetadataReader metadata = new MetadataReader();
-        System.err.println("Resolving database structure (" + schema + ")...");
-
-        new EmbeddedDriver();
+        if (output.checkError())
+        {
+            throw new IOException("Error writing output");
+        }
+    }
 
-        try (Connection connection = DriverManager.getConnection(config.getDerbyUrl()))
+    private void addToIndex(Table table, String section, long start)
+    {
+        if (index != null)
         {
-            Database database = metadata.readDatabase(connection, schema);
-            getInternalData(database.getTables(), connection, schema);
+            index.add(table.getOutputName(), section, start, counter.getByteCount());
         }
     }
 
     /**
-     * Read data from each {@link Table} and add it to
-     * the output.
-     * 
-     * @param tables A list of tables to read from
+     * Write the INSERT statements for all rows of one table.
+     *
+     * @param table The table to export
      * @param connection The database connection used to fetch the data
      * @param schema The name of the schema we are using
-     * @throws SQLException 
-     * @throws IOException 
+     * @param lobs If not null, binary values are written through this deduplicator
+     * @param commitInterval If above zero, commit after about this many rows
+     * @throws SQLException
+     * @throws IOException
      */
-    private void getInternalData(List<Table> tables, Connection connection, String schema) throws SQLException, IOException
+    private void getTableData(Table table, Connection connection, String schema, LobDeduplicator lobs, int commitInterval) throws SQLException, IOException
     {
-        System.err.println("Fetching database data...");
+        System.err.println("Table " + table.getTableName() + "...");
 
-        output.println("SET CONSTRAINTS ALL DEFERRED;");
+        checkCancelled();
+        if (listener != null)
+        {
+            listener.tableStarted(table);
+        }
 
-        for (Table table : tables)
+        if (config.getTruncateTables() && !config.getConstraintsEnabled())
         {
-            if (!table.isExcluded())
+            output.println(dialect.getDeleteSQL(table));
+        }
+
+        long rowCount;
+        if (dataFileWriter != null)
+        {
+            try (Statement statement = connection.createStatement();
+                    ResultSet dataRows = statement.executeQuery(table.getSelectQuery(schema)))
+            {
+                rowCount = writeDataFile(table, dataRows);
+            }
+        }
+        else if (nativeExport != null)
+        {
+            rowCount = nativeExport.write(table, output);
+            if (listener != null)
+            {
+                listener.rowWritten(table, rowCount);
+            }
+        }
+        else
+        {
+            try (Statement statement = connection.createStatement();
+                    ResultSet dataRows = statement.executeQuery(table.getSelectQuery(schema)))
             {
-                output.println("ALTER TABLE " + table.getTableName() + " DISABLE TRIGGER ALL;");
+                rowCount = writeRows(table, dataRows, lobs, commitInterval);
             }
         }
 
-        output.println("BEGIN;");
+        checkOutput();
+        if (listener != null)
+        {
+            listener.tableFinished(table, rowCount);
+        }
+
+        System.err.println("Exported " + table.getTableName() + ". " + rowCount + " rows.");
+    }
 
-        for (Table table : tables)
+    /**
+     * @return the number of rows written
+     */
+    private long writeRows(Table table, ResultSet dataRows, LobDeduplicator lobs, int commitInterval) throws SQLException, IOException
+    {
+        List<Column> columns = table.getColumns();
+
+        TableChecksum checksum = null;
+        if (checksumOutput != null)
         {
-            if (!table.isExcluded())
+            checksum = new TableChecksum(table.getOutputName());
+            checksums.add(checksum);
+        }
+
+        SequenceTracker sequence = null;
+        if (config.getComputedSequences())
+        {
+            sequence = SequenceTracker.forTable(table);
+            if (sequence != null)
             {
-                List<Column> columns = table.getColumns();
-                System.err.println("Table " + table.getTableName() + "...");
+                sequences.add(sequence);
+            }
+        }
+
+        TableSampler tableSampler = sampler == null ? null : sampler.forTable(table);
+        KeyBatches keyBatches = table.isOrderedByKey() ? new KeyBatches(table, MAX_ALLOWED_ROWS, MAX_KEY_BATCH_ROWS) : null;
+
+        TableProfile profile = null;
+        if (config.getProfileInterval() > 0)
+        {
+            profile = new TableProfile(table, config.getProfileInterval());
+            profiles.add(profile);
+        }
 
-                    Statement statement = connection.createStatement();
-                    ResultSet dataRows = statement.executeQuery(table.getSelectQuery(schema));
+        long rowCount = 0;
+        int batchRows = 0;
+        long rowsSinceCommit = 0;
+        // with deduplication a row is rendered first, since it may need staging rows written ahead of its statement
+        SpillBuffer rowBytes = lobs == null ? null : new SpillBuffer(config.getDedupLobsSpillThreshold(), memoryBudget);
+        PrintStream rowOutput = rowBytes == null ? null : new PrintStream(rowBytes);
+        try
+        {
+            while (fetch(dataRows, profile))
+            {
+                checkCancelled();
 
-                    if (config.getTruncateTables())
+                if (tableSampler != null)
+                {
+                    if (tableSampler.isFull())
+                    {
+                        break;
+                    }
+                    if (!tableSampler.accept(dataRows))
                     {
-                        output.println("DELETE FROM " + table.getTableName() + ";");
+                        continue;
                     }
+                }
 
-                    // check that we have at least one row
-                    int rowCount = 0;
-                    while (dataRows.next())
+                if (lobs != null)
+                {
+                    rowBytes.reset();
+                    writeRow(columns, dataRows, rowOutput, lobs, profile, rowBytes);
+                    rowOutput.flush();
+                    if (lobs.hasPending())
                     {
-                        if (rowCount % MAX_ALLOWED_ROWS == 0)
-                        {
-                            output.println(";");
-                            output.println(table.getInsertSQL());
-                        }
-                        else
-                        {
-                            output.println(",");
-                        }
-
-                        rowCount++;
-                        output.print("(");
-
-                        boolean firstColumn = true;
-                        for (Column column : columns)
-                        {
-                            if (firstColumn)
-                            {
-                                firstColumn = false;
-                            }
-                            else
-                            {
-                                output.print(",");
-                            }
-
-                            column.toString(dataRows, output);
-                        }
-
-                        output.print(")");
+                        output.println(";");
+                        lobs.writePending(output);
+                        batchRows = 0;
                     }
+                }
 
+                if (keyBatches == null ? batchRows % MAX_ALLOWED_ROWS == 0 : keyBatches.startsBatch(dataRows, batchRows))
+                {
                     output.println(";");
+                    if (commitInterval > 0 && rowsSinceCommit >= commitInterval)
+                    {
+                        output.println(dialect.getCommitSQL());
+                        output.println(dialect.getBeginSQL());
+                        rowsSinceCommit = 0;
+                    }
+                    output.println(table.getInsertSQL());
+                }
+                else
+                {
+                    output.println(",");
+                }
+
+                rowCount++;
+                batchRows++;
+                rowsSinceCommit++;
+
+                if (checksum != null)
+                {
+                    checksumOutput.beginRow(checksum);
+                }
+
+                if (lobs != null)
+                {
+                    rowBytes.writeTo(output);
+                }
+                else
+                {
+                    writeRow(columns, dataRows, output, null, profile, null);
+                }
+
+                if (checksum != null)
+                {
+                    checksumOutput.endRow();
+                }
+
+                if (sequence != null)
+                {
+                    sequence.update(dataRows);
+                }
 
-                    dataRows.close();
-                    statement.close();
+                if (listener != null)
+                {
+                    listener.rowWritten(table, rowCount);
+                }
 
-                    System.err.println("Exported " + table.getTableName() + ". " + rowCount + " rows.");
+                if (throttle != null)
+                {
+                    throttle.rowWritten(counter.getByteCount());
+                }
+            }
+        }
+        finally
+        {
+            if (rowBytes != null)
+            {
+                rowBytes.dispose();
             }
         }
 
-        output.println("COMMIT;");
+        output.println(";");
+        return rowCount;
+    }
 
-        for (Table table : tables)
+    /**
+     * Write the rows of the table to a data file of their own, and the statement loading it to the script.
+     *
+     * @return the number of rows written
+     */
+    private long writeDataFile(Table table, ResultSet dataRows) throws SQLException, IOException
+    {
+        List<Column> columns = table.getColumns();
+        TableSampler tableSampler = sampler == null ? null : sampler.forTable(table);
+        File dataFile = new File(dataDir, table.getOutputName() + dataFileWriter.getFileExtension());
+
+        long rowCount = 0;
+        try (CountingOutputStream fileOutput = new CountingOutputStream(
+                new BufferedOutputStream(new FileOutputStream(dataFile), config.getBufferSize() * 1024)))
         {
-            if (!table.isExcluded())
+            while (fetch(dataRows))
             {
-                output.println("ALTER TABLE " + table.getTableName() + " ENABLE TRIGGER ALL;");
+                checkCancelled();
+
+                if (tableSampler != null)
+                {
+                    if (tableSampler.isFull())
+                    {
+                        break;
+                    }
+                    if (!tableSampler.accept(dataRows))
+                    {
+                        continue;
+                    }
+                }
+
+                dataFileWriter.writeRow(columns, dataRows, fileOutput);
+                rowCount++;
+
+                if (listener != null)
+                {
+                    listener.rowWritten(table, rowCount);
+                }
+
+                if (throttle != null)
+                {
+                    throttle.rowWritten(counter.getByteCount() + dataFileBytes + fileOutput.getByteCount());
+                }
             }
+            dataFileBytes += fileOutput.getByteCount();
+        }
+
+        output.println(dataFileWriter.getLoadSQL(table, dataFile));
+        return rowCount;
+    }
+
+    /**
+     * Move to the next row, timing it if the profile measures the row.
+     */
+    private boolean fetch(ResultSet dataRows, TableProfile profile) throws SQLException
+    {
+        if (profile == null || !profile.nextRow())
+        {
+            return fetch(dataRows);
         }
 
-        output.println("SET CONSTRAINTS ALL IMMEDIATE;");
+        long start = System.nanoTime();
+        boolean found = fetch(dataRows);
+        profile.recordFetch(System.nanoTime() - start);
+        return found;
+    }
 
-        URL cleanup = getClass().getResource("/cleanup.sql");
-        try (InputStream in = cleanup.openStream())
+    /**
+     * Move to the next row, timing Derby for the throttle.
+     */
+    private boolean fetch(ResultSet dataRows) throws SQLException
+    {
+        if (throttle == null)
         {
-            System.err.println("Writing cleanup procedures");
+            return dataRows.next();
+        }
 
-            IOUtils.copy(in, output);
+        throttle.fetchStarted();
+        boolean found = dataRows.next();
+        throttle.fetchFinished();
+        return found;
+    }
+
+    /**
+     * @return the feature in use which needs the rows read over JDBC, or null if the export backend can be used
+     */
+    private String getUnsupportedByExport(Connection connection, LobDeduplicator lobs) throws SQLException
+    {
+        if (dialect.getDataFileWriter() != null)
+        {
+            // it writes INSERT statements, data files are written from the rows themselves
+            return "the " + config.getDialectName() + " dialect";
         }
-        catch (IOException e)
+        if (!NativeExport.isEmbedded(connection))
+        {
+            return "network connections";
+        }
+        if (lobs != null)
+        {
+            return "output.dedupLobs";
+        }
+        if (checksumOutput != null)
+        {
+            return "output.checksums";
+        }
+        if (config.getComputedSequences())
+        {
+            return "output.sequences = computed";
+        }
+        if (sampler != null)
+        {
+            return "sampling";
+        }
+        if (throttle != null)
+        {
+            return "throttling";
+        }
+        if (config.getProfileInterval() > 0)
         {
-            throw new RuntimeException("Error reading cleanup.sql", e);
+            return "profiling";
         }
+        if (config.getKeyOrder())
+        {
+            // its statements are cut by counting rows
+            return "output.rowOrder = key";
+        }
+        return null;
+    }
 
-        output.flush();
+    /**
+     * Make the throttle of this dump adjustable through JMX.
+     *
+     * @return the name it was registered under, or null if that failed
+     */
+    private ObjectName registerThrottle(String schema)
+    {
+        try
+        {
+            ObjectName name = new ObjectName("au.com.ish.derbydump:type=Throttle,schema=" + ObjectName.quote(schema));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(throttle, name);
+            System.err.println("Throttle registered with JMX as " + name);
+            return name;
+        }
+        catch (JMException e)
+        {
+            // another dump of the same schema may hold the name, the throttle still applies
+            System.err.println("Could not register the throttle with JMX: " + e.getMessage());
+            return null;
+        }
+    }
 
-        System.err.println("Reading done.");
+    private void unregisterThrottle(ObjectName name)
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+        catch (JMException e)
+        {
+            System.err.println("Could not unregister the throttle from JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write a row, measuring each of its columns if the profile measures the row.
+     *
+     * @param rowBytes The buffer the output writes to, or null if it writes to the dump
+     */
+    private void writeRow(List<Column> columns, ResultSet dataRows, PrintStream output, LobDeduplicator lobs, TableProfile profile, SpillBuffer rowBytes)
+            throws SQLException, IOException
+    {
+        if (profile == null || !profile.isSampled())
+        {
+            writeRow(columns, dataRows, output, lobs);
+            return;
+        }
+
+        // PrintStream passes every print straight through, so the byte counts are current without a flush
+        output.print("(");
+        for (int i = 0; i < columns.size(); i++)
+        {
+            if (i > 0)
+            {
+                output.print(",");
+            }
+            long before = rowBytes == null ? counter.getByteCount() : rowBytes.size();
+            long start = System.nanoTime();
+            columns.get(i).toString(dataRows, output, lobs);
+            long elapsed = System.nanoTime() - start;
+            profile.recordColumn(i, elapsed, (rowBytes == null ? counter.getByteCount() : rowBytes.size()) - before);
+        }
+        output.print(")");
+        profile.recordRow();
+    }
+
+    private static void writeRow(List<Column> columns, ResultSet dataRows, PrintStream output, LobDeduplicator lobs) throws SQLException, IOException
+    {
+        output.print("(");
+
+        boolean firstColumn = true;
+        for (Column column : columns)
+        {
+            if (firstColumn)
+            {
+                firstColumn = false;
+            }
+            else
+            {
+                output.print(",");
+            }
+
+            column.toString(dataRows, output, lobs);
+        }
+
+        output.print(")");
     }
 
     public static void main(String[] args)
@@ -204,6 +1141,104 @@ public class DerbyDump
             return;
         }
 
+        List<Configuration> targets;
+        try
+        {
+            targets = config.getTargets();
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        boolean success;
+        if (targets.size() == 1)
+        {
+            success = dump(targets.get(0));
+        }
+        else
+        {
+            success = dumpAll(targets, config.getThreads());
+        }
+
+        if (!success)
+        {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Dump every target, several at a time. The embedded engine is shared by all of them.
+     *
+     * @param targets One configuration per database and schema
+     * @param threads The number of dumps to run at the same time
+     * @return true if every dump succeeded
+     */
+    static boolean dumpAll(List<Configuration> targets, int threads)
+    {
+        System.err.println("Dumping " + targets.size() + " schemas with " + threads + " threads...");
+
+        // boot the engine once up front rather than racing to do it in every worker
+        new EmbeddedDriver();
+
+        // every dump buffers within the same memory, however many run at the same time
+        final MemoryBudget budget = new MemoryBudget(targets.get(0).getMemoryBudget());
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, targets.size()));
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (final Configuration target : targets)
+        {
+            results.add(executor.submit(new Callable<Boolean>()
+            {
+                @Override
+                public Boolean call()
+                {
+                    return dump(target, budget);
+                }
+            }));
+        }
+        executor.shutdown();
+
+        boolean success = true;
+        for (int i = 0; i < targets.size(); i++)
+        {
+            Configuration target = targets.get(i);
+            try
+            {
+                if (!results.get(i).get())
+                {
+                    System.err.println("Failed: " + target.getSchemaName() + " from " + target.getDerbyUrl());
+                    success = false;
+                }
+            }
+            catch (InterruptedException | ExecutionException e)
+            {
+                System.err.println("Failed: " + target.getSchemaName() + " from " + target.getDerbyUrl());
+                e.printStackTrace();
+                success = false;
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Dump one schema to the configured output, reporting any error.
+     *
+     * @return true if the dump succeeded
+     */
+    static boolean dump(Configuration config)
+    {
+        return dump(config, null);
+    }
+
+    /**
+     * @param budget the memory budget shared with other dumps, or null for one of its own
+     */
+    static boolean dump(Configuration config, MemoryBudget budget)
+    {
+        boolean success = false;
         FileOutputStream outputFile = null;
         try
         {
@@ -225,19 +1260,19 @@ public class DerbyDump
                 {
                     System.err.println("File not found: " + file);
                     e.printStackTrace();
-                    System.exit(1);
-                    return;
+                    return false;
                 }
             }
 
             DerbyDump dd = new DerbyDump(output, config);
+            dd.setMemoryBudget(budget);
             dd.execute();
+            success = true;
         }
         catch (Throwable e)
         {
             System.err.println("Error performing export");
             e.printStackTrace();
-            System.exit(1);
         }
         finally
         {
@@ -251,9 +1286,10 @@ public class DerbyDump
                 {
                     System.err.println("Error closing output");
                     e.printStackTrace();
-                    System.exit(1);
+                    success = false;
                 }
             }
         }
+        return success;
     }
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.main;
+
+import au.com.ish.derbydump.derbydump.metadata.Table;
+
+/**
+ * Notified of progress while a {@link DerbyDump} runs. Methods are called on
+ * the thread performing the dump, so they should return quickly.
+ *
+ */
+public interface DumpListener
+{
+    /**
+     * Called before the first row of the table is read.
+     */
+    void tableStarted(Table table);
+
+    /**
+     * Called after each row has been written.
+     *
+     * @param rowCount The number of rows of the table written so far
+     */
+    void rowWritten(Table table, long rowCount);
+
+    /**
+     * Called after the last row of the table has been written.
+     *
+     * @param rowCount The number of rows written
+     */
+    void tableFinished(Table table, long rowCount);
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the output of a {@link DerbyDump} as it is produced. The dump
+ * waits for each call to return before producing more, so a sink which
+ * cannot keep up simply blocks.
+ *
+ */
+public interface DumpSink
+{
+    /**
+     * Consume a chunk of output. The buffer is only valid until this method returns.
+     *
+     * @param data The bytes to consume
+     * @throws IOException to abort the dump
+     */
+    void write(ByteBuffer data) throws IOException;
+
+    /**
+     * Called when the dump has finished writing, or wants buffered data pushed on.
+     *
+     * @throws IOException to abort the dump
+     */
+    void flush() throws IOException;
+}
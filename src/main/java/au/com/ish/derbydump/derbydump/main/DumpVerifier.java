@@ -0,0 +1,276 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.main;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import au.com.ish.derbydump.derbydump.checksum.TableChecksum;
+
+/**
+ * Checks a dump written with output.checksums enabled against its footer,
+ * without restoring it. The file is read once; the rows are hashed by a pool
+ * of threads, which works because the table checksums do not depend on row order.
+ *
+ */
+public class DumpVerifier
+{
+    private static final int BATCH_ROWS = 1000;
+    private static final String INSERT_PREFIX = "INSERT INTO ";
+    private static final String INSERT_SUFFIX = " VALUES ";
+
+    private final int threads;
+
+    public DumpVerifier(int threads)
+    {
+        this.threads = threads;
+    }
+
+    /**
+     * Read a dump and compare the checksums of its data with the ones recorded in the footer.
+     *
+     * @param in The dump
+     * @return a description of every problem found, empty if the dump is complete
+     * @throws IOException on error reading the dump
+     * @throws InterruptedException if interrupted waiting for the hashing threads
+     */
+    public List<String> verify(InputStream in) throws IOException, InterruptedException
+    {
+        Map<String, TableChecksum> expected = new LinkedHashMap<String, TableChecksum>();
+        Map<String, TableChecksum> actual = new LinkedHashMap<String, TableChecksum>();
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+
+        try
+        {
+            LineReader lines = new LineReader(in);
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            TableChecksum current = null;
+            List<byte[]> batch = new ArrayList<byte[]>();
+
+            while (lines.readLine(line))
+            {
+                byte[] bytes = line.toByteArray();
+                int length = bytes.length;
+                if (length > 0 && bytes[length - 1] == '\r')
+                {
+                    length--;
+                }
+
+                if (current != null && length > 0 && bytes[0] == '(')
+                {
+                    // each row is on its own line, followed by the separator of the statement
+                    if (bytes[length - 1] == ',' || bytes[length - 1] == ';')
+                    {
+                        length--;
+                    }
+                    batch.add(length == bytes.length ? bytes : Arrays.copyOf(bytes, length));
+
+                    if (batch.size() >= BATCH_ROWS)
+                    {
+                        submit(executor, current, batch);
+                        batch = new ArrayList<byte[]>();
+                    }
+                    continue;
+                }
+
+                if (current != null && !batch.isEmpty())
+                {
+                    submit(executor, current, batch);
+                    batch = new ArrayList<byte[]>();
+                }
+                current = null;
+
+                String text = new String(bytes, 0, length);
+                TableChecksum footer = TableChecksum.parseFooter(text);
+                if (footer != null)
+                {
+                    expected.put(footer.getTableName(), footer);
+                }
+                else if (text.startsWith(INSERT_PREFIX) && text.endsWith(INSERT_SUFFIX))
+                {
+                    String tableName = text.substring(INSERT_PREFIX.length(), text.indexOf(" (", INSERT_PREFIX.length()));
+                    current = actual.get(tableName);
+                    if (current == null)
+                    {
+                        current = new TableChecksum(tableName);
+                        actual.put(tableName, current);
+                    }
+                }
+            }
+
+            if (current != null && !batch.isEmpty())
+            {
+                submit(executor, current, batch);
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        }
+
+        List<String> problems = new ArrayList<String>();
+        if (expected.isEmpty())
+        {
+            problems.add("No checksum footer found, the dump is incomplete or was written without output.checksums");
+            return problems;
+        }
+
+        for (TableChecksum checksum : expected.values())
+        {
+            TableChecksum found = actual.remove(checksum.getTableName());
+            if (found == null)
+            {
+                found = new TableChecksum(checksum.getTableName());
+            }
+
+            if (!checksum.matches(found))
+            {
+                problems.add("Table " + checksum.getTableName() + " expected " + checksum + " but found " + found);
+            }
+        }
+
+        for (TableChecksum checksum : actual.values())
+        {
+            problems.add("Table " + checksum.getTableName() + " has data but no checksum: " + checksum);
+        }
+
+        return problems;
+    }
+
+    private static void submit(ThreadPoolExecutor executor, final TableChecksum total, final List<byte[]> rows)
+    {
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                TableChecksum partial = new TableChecksum(total.getTableName());
+                for (byte[] row : rows)
+                {
+                    partial.addRow(row, 0, row.length);
+                }
+                total.add(partial);
+            }
+        });
+    }
+
+    /**
+     * Splits a stream into lines, scanning a block at a time for the line feeds.
+     */
+    private static class LineReader
+    {
+        private final InputStream in;
+        private final byte[] buffer = new byte[1 << 16];
+        private int position;
+        private int limit;
+
+        LineReader(InputStream in)
+        {
+            this.in = in;
+        }
+
+        /**
+         * Read the next line, without its line feed, into the buffer.
+         *
+         * @return false at the end of the stream
+         */
+        boolean readLine(ByteArrayOutputStream line) throws IOException
+        {
+            line.reset();
+            boolean found = false;
+
+            while (true)
+            {
+                if (position == limit)
+                {
+                    limit = in.read(buffer);
+                    position = 0;
+                    if (limit <= 0)
+                    {
+                        limit = 0;
+                        return found;
+                    }
+                }
+                found = true;
+
+                int start = position;
+                while (position < limit && buffer[position] != '\n')
+                {
+                    position++;
+                }
+                line.write(buffer, start, position - start);
+
+                if (position < limit)
+                {
+                    // skip the line feed
+                    position++;
+                    return true;
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: DumpVerifier <dump file> [threads]");
+            System.exit(1);
+            return;
+        }
+
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        try (InputStream in = new BufferedInputStream(new FileInputStream(args[0]), 1 << 16))
+        {
+            System.err.println("Verifying " + args[0] + "...");
+            List<String> problems = new DumpVerifier(threads).verify(in);
+
+            for (String problem : problems)
+            {
+                System.err.println(problem);
+            }
+
+            if (!problems.isEmpty())
+            {
+                System.exit(1);
+                return;
+            }
+            System.err.println("Dump verified.");
+        }
+        catch (Throwable e)
+        {
+            System.err.println("Error verifying dump");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
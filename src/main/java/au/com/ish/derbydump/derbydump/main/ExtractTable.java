@@ -0,0 +1,180 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.main;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+
+import au.com.ish.derbydump.derbydump.index.DumpIndex;
+
+/**
+ * Copies the statements of a single table out of a dump written with
+ * output.index enabled, using the index to go straight to its sections.
+ *
+ * The data is wrapped in a transaction in the dump's dialect, and the
+ * sequence values computed for the table are set with the same function the
+ * dump defines for them.
+ *
+ */
+public class ExtractTable
+{
+    private final File dump;
+    private final DumpIndex index;
+
+    public ExtractTable(File dump, File indexFile) throws IOException
+    {
+        this.dump = dump;
+        this.index = DumpIndex.read(indexFile);
+    }
+
+    /**
+     * Write a script restoring one table.
+     *
+     * @param tableName The table as named in the dump, matched case insensitively
+     * @param target Where the script is written
+     * @return false if the table is not in the index
+     * @throws IOException
+     */
+    public boolean extract(String tableName, WritableByteChannel target) throws IOException
+    {
+        List<DumpIndex.Entry> entries = index.getEntries(tableName);
+        if (entries.isEmpty())
+        {
+            return false;
+        }
+
+        try (FileInputStream in = new FileInputStream(dump))
+        {
+            FileChannel channel = in.getChannel();
+
+            for (DumpIndex.Entry entry : entries)
+            {
+                if (DumpIndex.SECTION_DATA.equals(entry.getSection()))
+                {
+                    write(index.getBeginSQL() + "\n", target);
+                    transfer(channel, entry, target);
+                    write(index.getCommitSQL() + "\n", target);
+                }
+                else if (DumpIndex.SECTION_SEQUENCES.equals(entry.getSection()))
+                {
+                    writeResource(SequenceTracker.FUNCTION_RESOURCE, target);
+                    transfer(channel, entry, target);
+                    write(SequenceTracker.DROP_FUNCTION_SQL + "\n", target);
+                }
+                else
+                {
+                    transfer(channel, entry, target);
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void transfer(FileChannel channel, DumpIndex.Entry entry, WritableByteChannel target) throws IOException
+    {
+        long position = entry.getOffset();
+        long end = entry.getOffset() + entry.getLength();
+
+        if (end > channel.size())
+        {
+            throw new IOException("Index does not match the dump, it is shorter than expected");
+        }
+
+        // transferTo may copy less than asked for, and copies nothing past the end of the file
+        while (position < end)
+        {
+            long transferred = channel.transferTo(position, end - position, target);
+            if (transferred == 0 && position >= channel.size())
+            {
+                throw new IOException("Index does not match the dump, it ends at " + channel.size() + " before " + end);
+            }
+            position += transferred;
+        }
+    }
+
+    private static void writeResource(String name, WritableByteChannel target) throws IOException
+    {
+        try (InputStream in = ExtractTable.class.getResourceAsStream(name))
+        {
+            write(IOUtils.toString(in, "UTF-8"), target);
+        }
+    }
+
+    private static void write(String text, WritableByteChannel target) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes("UTF-8"));
+        while (buffer.hasRemaining())
+        {
+            target.write(buffer);
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        if (args.length < 2)
+        {
+            System.err.println("Usage: ExtractTable <dump file> <table name> [output file]");
+            System.exit(1);
+            return;
+        }
+
+        File dump = new File(args[0]);
+        File indexFile = new File(System.getProperty("output.indexPath", args[0] + ".idx"));
+
+        try
+        {
+            OutputStream out = args.length > 2 ? new FileOutputStream(args[2]) : System.out;
+            try
+            {
+                WritableByteChannel target = out instanceof FileOutputStream ? ((FileOutputStream) out).getChannel() : Channels.newChannel(out);
+
+                if (!new ExtractTable(dump, indexFile).extract(args[1], target))
+                {
+                    System.err.println("Table " + args[1] + " not found in " + indexFile);
+                    System.exit(1);
+                    return;
+                }
+                out.flush();
+            }
+            finally
+            {
+                // only flushed, System.out belongs to the JVM
+                if (out != System.out)
+                {
+                    out.close();
+                }
+            }
+        }
+        catch (Throwable e)
+        {
+            System.err.println("Error extracting table");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,544 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.main;
+
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.derby.jdbc.EmbeddedDriver;
+
+import au.com.ish.derbydump.derbydump.config.Configuration;
+import au.com.ish.derbydump.derbydump.metadata.Column;
+import au.com.ish.derbydump.derbydump.metadata.Database;
+import au.com.ish.derbydump.derbydump.metadata.Table;
+
+/**
+ * Copies the tables of a Derby schema straight into another database over
+ * JDBC, without rendering the values as SQL text.
+ *
+ * Rows are bound to a reused PreparedStatement and sent in batches. Tables are
+ * copied by dependency layer, several at a time, and each worker has its own
+ * Derby and target connection. The target tables must exist already, and the
+ * same table options as for a dump apply.
+ *
+ * BLOBs and CLOBs are streamed from Derby into the insert, so they are never
+ * held in memory whole. Their streams do not outlive the row, so tables with
+ * them are inserted a row at a time. XML is read as a CLOB through its
+ * {@link au.com.ish.derbydump.derbydump.metadata.TypeExporter} and parsed again
+ * by the target. LONG VARCHAR values are read whole, they are at most 32700
+ * characters.
+ *
+ */
+public class JdbcCopy
+{
+    private final Configuration config;
+
+    public JdbcCopy(Configuration config)
+    {
+        this.config = config;
+    }
+
+    /**
+     * A Derby connection to read from and a target connection to write to, used by one table at a time.
+     */
+    private static class Worker
+    {
+        final Connection source;
+        final Connection target;
+
+        Worker(Connection source, Connection target)
+        {
+            this.source = source;
+            this.target = target;
+        }
+    }
+
+    /**
+     * Copy every table of the configured schema to copy.url.
+     */
+    public void execute() throws SQLException
+    {
+        new EmbeddedDriver();
+        String schema = config.getSchemaName();
+
+        List<List<Table>> layers;
+        try (Connection connection = DriverManager.getConnection(config.getDerbyUrl()))
+        {
+            System.err.println("Resolving database structure (" + schema + ")...");
+            Database database = new MetadataReader(config.getTypeExporters()).readDatabase(connection, schema, config.getTableFilter());
+            for (Table table : database.getTables())
+            {
+                DerbyDump.configureTable(config, table);
+            }
+            // parents are copied before the tables referring to them
+            layers = database.getDependencyLayers();
+        }
+
+        int threads = Math.max(1, config.getCopyThreads());
+        List<Worker> opened = new ArrayList<Worker>();
+        BlockingQueue<Worker> workers = new ArrayBlockingQueue<Worker>(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try
+        {
+            for (int i = 0; i < threads; i++)
+            {
+                Worker worker = openWorker();
+                opened.add(worker);
+                workers.add(worker);
+            }
+
+            if (config.getTruncateTables())
+            {
+                truncate(layers, workers.peek().target);
+            }
+
+            for (List<Table> layer : layers)
+            {
+                copyLayer(layer, workers, executor);
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+            for (Worker worker : opened)
+            {
+                close(worker.source);
+                close(worker.target);
+            }
+        }
+    }
+
+    private Worker openWorker() throws SQLException
+    {
+        Connection source = DriverManager.getConnection(config.getDerbyUrl());
+        try
+        {
+            Connection target = DriverManager.getConnection(config.getCopyUrl(), config.getCopyUser(), config.getCopyPassword());
+            target.setAutoCommit(false);
+            return new Worker(source, target);
+        }
+        catch (SQLException e)
+        {
+            close(source);
+            throw e;
+        }
+    }
+
+    /**
+     * Empty the target tables, children before the parents they refer to.
+     */
+    private void truncate(List<List<Table>> layers, Connection target) throws SQLException
+    {
+        List<Table> tables = new ArrayList<Table>();
+        for (List<Table> layer : layers)
+        {
+            tables.addAll(layer);
+        }
+        Collections.reverse(tables);
+
+        try (Statement statement = target.createStatement())
+        {
+            for (Table table : tables)
+            {
+                statement.executeUpdate("DELETE FROM " + table.getOutputName());
+            }
+        }
+        target.commit();
+    }
+
+    /**
+     * Copy the tables of one layer concurrently, returning once all of them are done.
+     */
+    private void copyLayer(List<Table> layer, final BlockingQueue<Worker> workers, ExecutorService executor) throws SQLException
+    {
+        List<Future<Long>> results = new ArrayList<Future<Long>>();
+        for (final Table table : layer)
+        {
+            results.add(executor.submit(new Callable<Long>()
+            {
+                @Override
+                public Long call() throws Exception
+                {
+                    Worker worker = workers.take();
+                    try
+                    {
+                        return copyTable(table, worker);
+                    }
+                    finally
+                    {
+                        workers.add(worker);
+                    }
+                }
+            }));
+        }
+
+        for (Future<Long> result : results)
+        {
+            try
+            {
+                result.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            catch (ExecutionException e)
+            {
+                if (e.getCause() instanceof SQLException)
+                {
+                    throw (SQLException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * @return the number of rows copied
+     */
+    private long copyTable(Table table, Worker worker) throws SQLException
+    {
+        System.err.println("Table " + table.getTableName() + "...");
+
+        List<Column> columns = table.getColumns();
+        int[] types = new int[columns.size()];
+        boolean[] exported = new boolean[columns.size()];
+        boolean streamed = false;
+        List<Object> lobs = new ArrayList<Object>();
+        for (int i = 0; i < types.length; i++)
+        {
+            types[i] = columns.get(i).getColumnDataType();
+            exported[i] = columns.get(i).getExporter() != null;
+            streamed |= isLob(types[i]);
+        }
+
+        int batchSize = streamed ? 1 : Math.max(1, config.getCopyBatchSize());
+        int commitInterval = Math.max(batchSize, config.getCopyCommitInterval());
+
+        long rowCount = 0;
+        try (Statement select = worker.source.createStatement();
+                ResultSet rows = select.executeQuery(table.getSelectQuery(config.getSchemaName()));
+                PreparedStatement insert = worker.target.prepareStatement(getInsertSQL(table, isDerby(worker.target))))
+        {
+            int batchRows = 0;
+            int rowsSinceCommit = 0;
+            while (rows.next())
+            {
+                for (int i = 0; i < types.length; i++)
+                {
+                    bind(rows, insert, i + 1, types[i], exported[i], lobs);
+                }
+                rowCount++;
+                rowsSinceCommit++;
+
+                if (streamed)
+                {
+                    // the streams are read before the next row invalidates them
+                    insert.executeUpdate();
+                    free(lobs);
+                }
+                else
+                {
+                    insert.addBatch();
+                    batchRows++;
+                }
+
+                if (streamed || batchRows >= batchSize)
+                {
+                    if (batchRows > 0)
+                    {
+                        insert.executeBatch();
+                    }
+                    batchRows = 0;
+                    if (rowsSinceCommit >= commitInterval)
+                    {
+                        worker.target.commit();
+                        rowsSinceCommit = 0;
+                    }
+                }
+            }
+
+            if (batchRows > 0)
+            {
+                insert.executeBatch();
+            }
+            worker.target.commit();
+        }
+        catch (SQLException e)
+        {
+            worker.target.rollback();
+            throw e;
+        }
+
+        System.err.println("Copied " + table.getTableName() + ". " + rowCount + " rows.");
+        return rowCount;
+    }
+
+    /**
+     * @return true if the connection is to Derby, which has its own XMLPARSE syntax
+     */
+    private static boolean isDerby(Connection connection) throws SQLException
+    {
+        return connection.getMetaData().getDatabaseProductName().contains("Derby");
+    }
+
+    static String getInsertSQL(Table table, boolean derby)
+    {
+        StringBuilder sql = new StringBuilder();
+        StringBuilder parameters = new StringBuilder();
+        sql.append("INSERT INTO ").append(table.getOutputName()).append(" (");
+        for (Column column : table.getColumns())
+        {
+            if (parameters.length() > 0)
+            {
+                sql.append(",");
+                parameters.append(",");
+            }
+            sql.append(column.getColumnName());
+            if (column.getColumnDataType() != Types.SQLXML)
+            {
+                parameters.append("?");
+            }
+            else if (derby)
+            {
+                parameters.append("XMLPARSE(DOCUMENT CAST(? AS CLOB) PRESERVE WHITESPACE)");
+            }
+            else
+            {
+                parameters.append("XMLPARSE(DOCUMENT ?)");
+            }
+        }
+        sql.append(") VALUES (").append(parameters).append(")");
+        return sql.toString();
+    }
+
+    private static boolean isLob(int type)
+    {
+        return type == Types.CLOB || type == Types.BLOB || type == Types.SQLXML;
+    }
+
+    private static void free(List<Object> lobs) throws SQLException
+    {
+        for (Object lob : lobs)
+        {
+            if (lob instanceof Blob)
+            {
+                ((Blob) lob).free();
+            }
+            else
+            {
+                ((Clob) lob).free();
+            }
+        }
+        lobs.clear();
+    }
+
+    /**
+     * Move one value from the Derby row to the insert, without going through text.
+     *
+     * BLOBs and CLOBs are bound as streams, so the insert must be executed before
+     * the next row is read.
+     *
+     * @param exported true if the column is selected through its exporter, which
+     *            gives a type JDBC can read
+     * @param lobs where the BLOBs and CLOBs bound are added, to be freed once inserted
+     */
+    static void bind(ResultSet row, PreparedStatement insert, int index, int type, boolean exported, List<Object> lobs)
+            throws SQLException
+    {
+        switch (type)
+        {
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                int intValue = row.getInt(index);
+                if (row.wasNull())
+                {
+                    insert.setNull(index, type);
+                }
+                else
+                {
+                    insert.setInt(index, intValue);
+                }
+                break;
+            case Types.BIGINT:
+                long longValue = row.getLong(index);
+                if (row.wasNull())
+                {
+                    insert.setNull(index, type);
+                }
+                else
+                {
+                    insert.setLong(index, longValue);
+                }
+                break;
+            case Types.REAL:
+                float floatValue = row.getFloat(index);
+                if (row.wasNull())
+                {
+                    insert.setNull(index, type);
+                }
+                else
+                {
+                    insert.setFloat(index, floatValue);
+                }
+                break;
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                double doubleValue = row.getDouble(index);
+                if (row.wasNull())
+                {
+                    insert.setNull(index, type);
+                }
+                else
+                {
+                    insert.setDouble(index, doubleValue);
+                }
+                break;
+            case Types.BOOLEAN:
+            case Types.BIT:
+                boolean booleanValue = row.getBoolean(index);
+                if (row.wasNull())
+                {
+                    insert.setNull(index, type);
+                }
+                else
+                {
+                    insert.setBoolean(index, booleanValue);
+                }
+                break;
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                insert.setBigDecimal(index, row.getBigDecimal(index));
+                break;
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+                insert.setString(index, row.getString(index));
+                break;
+            case Types.CLOB:
+            case Types.SQLXML:
+                // XML is selected as a CLOB, and bound into a CLOB parameter of XMLPARSE
+                Clob text = row.getClob(index);
+                if (text == null)
+                {
+                    insert.setNull(index, Types.CLOB);
+                }
+                else
+                {
+                    lobs.add(text);
+                    insert.setCharacterStream(index, text.getCharacterStream());
+                }
+                break;
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+                insert.setBytes(index, row.getBytes(index));
+                break;
+            case Types.BLOB:
+                Blob binary = row.getBlob(index);
+                if (binary == null)
+                {
+                    insert.setNull(index, type);
+                }
+                else
+                {
+                    lobs.add(binary);
+                    insert.setBinaryStream(index, binary.getBinaryStream());
+                }
+                break;
+            case Types.DATE:
+                insert.setDate(index, row.getDate(index));
+                break;
+            case Types.TIME:
+                insert.setTime(index, row.getTime(index));
+                break;
+            case Types.TIMESTAMP:
+                insert.setTimestamp(index, row.getTimestamp(index));
+                break;
+            default:
+                if (exported)
+                {
+                    // the exporter's select expression converts the value to something readable as text
+                    insert.setString(index, row.getString(index));
+                    break;
+                }
+                Object value = row.getObject(index);
+                if (value == null)
+                {
+                    insert.setNull(index, type);
+                }
+                else
+                {
+                    insert.setObject(index, value);
+                }
+                break;
+        }
+    }
+
+    private static void close(Connection connection)
+    {
+        try
+        {
+            connection.close();
+        }
+        catch (SQLException e)
+        {
+            // nothing more to do with it
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        Configuration config = new Configuration();
+
+        if (config.getDerbyUrl() == null || config.getSchemaName() == null || config.getCopyUrl() == null)
+        {
+            System.err.println("db.url, db.schemaName and copy.url are required");
+            System.exit(1);
+            return;
+        }
+
+        try
+        {
+            new JdbcCopy(config).execute();
+        }
+        catch (Throwable e)
+        {
+            System.err.println("Error copying tables");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
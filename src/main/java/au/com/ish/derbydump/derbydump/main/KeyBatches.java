@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.main;
+
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import au.com.ish.derbydump.derbydump.metadata.Column;
+import au.com.ish.derbydump.derbydump.metadata.Table;
+
+/**
+ * Chooses where INSERT statements start from the keys of the rows rather than
+ * by counting them. A row added or removed then only changes the statement it
+ * is in, and the text of every other statement stays byte for byte the same,
+ * which is what rsync, deduplicating storage and diff can make use of.
+ *
+ */
+class KeyBatches
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final List<String> keyColumns;
+    private final int averageRows;
+    private final int maxRows;
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * @param averageRows The average number of rows in a statement
+     * @param maxRows A statement always ends after this many rows
+     */
+    KeyBatches(Table table, int averageRows, int maxRows)
+    {
+        this.averageRows = averageRows;
+        this.maxRows = maxRows;
+
+        // the key must be read from the rows, so a projected away key is replaced by the columns which are there
+        List<String> names = new ArrayList<String>();
+        for (Column column : table.getColumns())
+        {
+            names.add(column.getColumnName());
+        }
+        if (names.containsAll(table.getOrderColumns()))
+        {
+            keyColumns = table.getOrderColumns();
+        }
+        else
+        {
+            keyColumns = new ArrayList<String>();
+            for (Column column : table.getColumns())
+            {
+                if (column.isOrderable())
+                {
+                    keyColumns.add(column.getColumnName());
+                }
+            }
+        }
+    }
+
+    /**
+     * @param batchRows The number of rows in the current statement
+     * @return true if the current row starts a new statement
+     */
+    boolean startsBatch(ResultSet row, int batchRows) throws SQLException
+    {
+        if (batchRows == 0 || batchRows >= maxRows)
+        {
+            return true;
+        }
+        if (keyColumns.isEmpty())
+        {
+            return batchRows >= averageRows;
+        }
+
+        crc.reset();
+        for (String column : keyColumns)
+        {
+            String value = row.getString(column);
+            if (value == null)
+            {
+                crc.update(1);
+            }
+            else
+            {
+                crc.update(value.getBytes(UTF8));
+            }
+            crc.update(0);
+        }
+        return crc.getValue() % averageRows == 0;
+    }
+}
@@ -18,24 +18,36 @@ package au.com.ish.derbydump.derbydump.main;
 
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.regex.Pattern;
 
+import au.com.ish.derbydump.derbydump.config.TableFilter;
+import au.com.ish.derbydump.derbydump.metadata.CheckConstraint;
 import au.com.ish.derbydump.derbydump.metadata.Column;
 import au.com.ish.derbydump.derbydump.metadata.Database;
+import au.com.ish.derbydump.derbydump.metadata.ForeignKey;
+import au.com.ish.derbydump.derbydump.metadata.Index;
 import au.com.ish.derbydump.derbydump.metadata.MetaDataColumnDescriptor;
 import au.com.ish.derbydump.derbydump.metadata.Table;
+import au.com.ish.derbydump.derbydump.metadata.TypeExporters;
 
 public class MetadataReader {
     private final Pattern searchStringPattern = Pattern.compile("[_%]");
     private static final List<MetaDataColumnDescriptor> columnsForColumn;
     private static final List<MetaDataColumnDescriptor> _columnsForTable;
+    private static final List<MetaDataColumnDescriptor> _columnsForPrimaryKey;
+    private static final List<MetaDataColumnDescriptor> _columnsForForeignKey;
+    private static final List<MetaDataColumnDescriptor> _columnsForIndex;
+    private final TypeExporters typeExporters;
     
     static{
         _columnsForTable = new ArrayList<MetaDataColumnDescriptor>();
@@ -45,6 +57,30 @@ public class MetadataReader {
         _columnsForTable.add(new MetaDataColumnDescriptor("TABLE_SCHEM", Types.VARCHAR));
         _columnsForTable.add(new MetaDataColumnDescriptor("REMARKS",     Types.VARCHAR));
     }
+    static{
+        _columnsForPrimaryKey = new ArrayList<MetaDataColumnDescriptor>();
+        _columnsForPrimaryKey.add(new MetaDataColumnDescriptor("COLUMN_NAME", Types.VARCHAR));
+        _columnsForPrimaryKey.add(new MetaDataColumnDescriptor("KEY_SEQ",     Types.TINYINT, Short.valueOf((short)0)));
+        _columnsForPrimaryKey.add(new MetaDataColumnDescriptor("PK_NAME",     Types.VARCHAR));
+    }
+    static{
+        _columnsForForeignKey = new ArrayList<MetaDataColumnDescriptor>();
+        _columnsForForeignKey.add(new MetaDataColumnDescriptor("FK_NAME",       Types.VARCHAR));
+        _columnsForForeignKey.add(new MetaDataColumnDescriptor("PKTABLE_NAME",  Types.VARCHAR));
+        _columnsForForeignKey.add(new MetaDataColumnDescriptor("PKCOLUMN_NAME", Types.VARCHAR));
+        _columnsForForeignKey.add(new MetaDataColumnDescriptor("FKCOLUMN_NAME", Types.VARCHAR));
+        _columnsForForeignKey.add(new MetaDataColumnDescriptor("KEY_SEQ",       Types.TINYINT, Short.valueOf((short)0)));
+        _columnsForForeignKey.add(new MetaDataColumnDescriptor("UPDATE_RULE",   Types.TINYINT, Short.valueOf((short)DatabaseMetaData.importedKeyNoAction)));
+        _columnsForForeignKey.add(new MetaDataColumnDescriptor("DELETE_RULE",   Types.TINYINT, Short.valueOf((short)DatabaseMetaData.importedKeyNoAction)));
+    }
+    static{
+        _columnsForIndex = new ArrayList<MetaDataColumnDescriptor>();
+        _columnsForIndex.add(new MetaDataColumnDescriptor("INDEX_NAME",       Types.VARCHAR));
+        _columnsForIndex.add(new MetaDataColumnDescriptor("NON_UNIQUE",       Types.BIT, Boolean.TRUE));
+        _columnsForIndex.add(new MetaDataColumnDescriptor("ORDINAL_POSITION", Types.TINYINT, Short.valueOf((short)0)));
+        _columnsForIndex.add(new MetaDataColumnDescriptor("COLUMN_NAME",      Types.VARCHAR));
+        _columnsForIndex.add(new MetaDataColumnDescriptor("ASC_OR_DESC",      Types.VARCHAR));
+    }
     static{
         columnsForColumn = new ArrayList<MetaDataColumnDescriptor>();
 
@@ -53,26 +89,77 @@ public class MetadataReader {
         columnsForColumn.add(new MetaDataColumnDescriptor("TABLE_NAME",     Types.VARCHAR));
         columnsForColumn.add(new MetaDataColumnDescriptor("COLUMN_NAME",    Types.VARCHAR));
         columnsForColumn.add(new MetaDataColumnDescriptor("DATA_TYPE",      Types.INTEGER, Types.OTHER));
+        columnsForColumn.add(new MetaDataColumnDescriptor("TYPE_NAME",      Types.VARCHAR));
         columnsForColumn.add(new MetaDataColumnDescriptor("NUM_PREC_RADIX", Types.INTEGER, 10));
         columnsForColumn.add(new MetaDataColumnDescriptor("DECIMAL_DIGITS", Types.INTEGER, 0));
         columnsForColumn.add(new MetaDataColumnDescriptor("COLUMN_SIZE",    Types.VARCHAR));
         columnsForColumn.add(new MetaDataColumnDescriptor("IS_NULLABLE",    Types.VARCHAR, "YES"));
         columnsForColumn.add(new MetaDataColumnDescriptor("REMARKS",        Types.VARCHAR));
     }
+
+    public MetadataReader() {
+        this(TypeExporters.createDefault());
+    }
+
+    /**
+     * @param typeExporters the exporters the columns are resolved against, usually those of the configuration
+     */
+    public MetadataReader(TypeExporters typeExporters) {
+        this.typeExporters = typeExporters;
+    }
     
     public Database readDatabase(Connection conn, String schema) {
+        return readDatabase(conn, schema, null);
+    }
+
+    /**
+     * @param filter Tables it does not include are skipped before their columns are read, may be null
+     */
+    public Database readDatabase(Connection conn, String schema, TableFilter filter) {
         String schemaUpper = schema.toUpperCase();
         Database database = new Database();
         database.setDatabaseName("mydatabase");
         try{
             
             DatabaseMetaData dmd = conn.getMetaData();
+            Map<String, Map<String, Long>> identityColumns = readIdentityColumns(conn, schemaUpper);
+            Map<String, String[]> constraintIndexes = readConstraintIndexes(conn, schemaUpper);
+            Map<String, List<CheckConstraint>> checkConstraints = readCheckConstraints(conn, schemaUpper);
             ResultSet tables = dmd.getTables(null, schemaUpper, null, new String[]{"TABLE"});
             while (tables.next()) {
                 Map values = readMetaData(tables, _columnsForTable);
+                String tableName = (String)values.get("TABLE_NAME");
+                if (filter != null && tableName != null && !filter.isIncluded(tableName)) {
+                    System.err.println("Excluded table: " + tableName);
+                    continue;
+                }
+
                 Table table = readTable(dmd, schemaUpper, values);
+                if (table == null) {
+                    continue;
+                }
+                if (filter != null) {
+                    table.setOutputName(filter.getOutputName(table.getTableName()));
+                }
                 System.err.println("Found table: " + table.getTableName());
 
+                Map<String, Long> identities = identityColumns.get(table.getTableName());
+                if (identities != null) {
+                    for (Column column : table.getColumns()) {
+                        Long nextValue = identities.get(column.getColumnName());
+                        if (nextValue != null) {
+                            column.setIdentity(true);
+                            column.setIdentityNextValue(nextValue);
+                        }
+                    }
+                }
+
+                table.getIndexes().addAll(readIndexes(dmd, schemaUpper, table.getTableName(), constraintIndexes));
+                List<CheckConstraint> checks = checkConstraints.get(table.getTableName());
+                if (checks != null) {
+                    table.getCheckConstraints().addAll(checks);
+                }
+
 				database.addTable(table);
             }
         }
@@ -82,6 +169,95 @@ public class MetadataReader {
         return database;
     }
     
+    /**
+     * Derby keeps the identity state in its own catalog rather than the JDBC metadata.
+     *
+     * @return the next generated value of each identity column, by table and column name
+     */
+    Map<String, Map<String, Long>> readIdentityColumns(Connection conn, String schema) throws SQLException {
+        Map<String, Map<String, Long>> result = new HashMap<String, Map<String, Long>>();
+
+        String sql = "SELECT t.TABLENAME, c.COLUMNNAME, c.AUTOINCREMENTVALUE FROM SYS.SYSCOLUMNS c"
+                + " JOIN SYS.SYSTABLES t ON c.REFERENCEID = t.TABLEID"
+                + " JOIN SYS.SYSSCHEMAS s ON t.SCHEMAID = s.SCHEMAID"
+                + " WHERE s.SCHEMANAME = ? AND c.AUTOINCREMENTINC IS NOT NULL";
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setString(1, schema);
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    Map<String, Long> columns = result.get(rows.getString(1));
+                    if (columns == null) {
+                        columns = new HashMap<String, Long>();
+                        result.put(rows.getString(1), columns);
+                    }
+                    columns.put(rows.getString(2), rows.getLong(3));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * getIndexInfo also lists the indexes Derby creates for constraints, under generated names.
+     *
+     * @return the constraint name and type (P, U or F) of each index backing a constraint, by index name
+     */
+    Map<String, String[]> readConstraintIndexes(Connection conn, String schema) throws SQLException {
+        Map<String, String[]> result = new HashMap<String, String[]>();
+
+        String sql = "SELECT g.CONGLOMERATENAME, c.CONSTRAINTNAME, c.TYPE FROM SYS.SYSCONSTRAINTS c"
+                + " JOIN SYS.SYSSCHEMAS s ON c.SCHEMAID = s.SCHEMAID"
+                + " JOIN SYS.SYSKEYS k ON k.CONSTRAINTID = c.CONSTRAINTID"
+                + " JOIN SYS.SYSCONGLOMERATES g ON g.CONGLOMERATEID = k.CONGLOMERATEID"
+                + " WHERE s.SCHEMANAME = ?"
+                + " UNION ALL"
+                + " SELECT g.CONGLOMERATENAME, c.CONSTRAINTNAME, c.TYPE FROM SYS.SYSCONSTRAINTS c"
+                + " JOIN SYS.SYSSCHEMAS s ON c.SCHEMAID = s.SCHEMAID"
+                + " JOIN SYS.SYSFOREIGNKEYS k ON k.CONSTRAINTID = c.CONSTRAINTID"
+                + " JOIN SYS.SYSCONGLOMERATES g ON g.CONGLOMERATEID = k.CONGLOMERATEID"
+                + " WHERE s.SCHEMANAME = ?";
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setString(1, schema);
+            statement.setString(2, schema);
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    result.put(rows.getString(1), new String[] { rows.getString(2), rows.getString(3) });
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the check constraints of the schema, by table name
+     */
+    Map<String, List<CheckConstraint>> readCheckConstraints(Connection conn, String schema) throws SQLException {
+        Map<String, List<CheckConstraint>> result = new HashMap<String, List<CheckConstraint>>();
+
+        String sql = "SELECT t.TABLENAME, c.CONSTRAINTNAME, k.CHECKDEFINITION FROM SYS.SYSCHECKS k"
+                + " JOIN SYS.SYSCONSTRAINTS c ON k.CONSTRAINTID = c.CONSTRAINTID"
+                + " JOIN SYS.SYSTABLES t ON c.TABLEID = t.TABLEID"
+                + " JOIN SYS.SYSSCHEMAS s ON t.SCHEMAID = s.SCHEMAID"
+                + " WHERE s.SCHEMANAME = ?";
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setString(1, schema);
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    List<CheckConstraint> checks = result.get(rows.getString(1));
+                    if (checks == null) {
+                        checks = new ArrayList<CheckConstraint>();
+                        result.put(rows.getString(1), checks);
+                    }
+                    CheckConstraint check = new CheckConstraint();
+                    check.setName(rows.getString(2));
+                    check.setDefinition(rows.getString(3));
+                    checks.add(check);
+                }
+            }
+        }
+        return result;
+    }
+
     Map<String, Object> readMetaData(ResultSet resultSet, List<MetaDataColumnDescriptor> columnDescriptors) throws SQLException {
         HashMap<String, Object> values = new HashMap<String, Object>();
 
@@ -99,10 +275,91 @@ public class MetadataReader {
             table = new Table();
             table.setTableName(tableName);
 	        table.addColumns(readColumns(metaData, schema, tableName));
+	        readPrimaryKey(metaData, schema, table);
+	        for (ForeignKey foreignKey : readForeignKeys(metaData, schema, tableName)) {
+	            table.addForeignKey(foreignKey);
+	        }
         }
         return table;
     }
+
+    void readPrimaryKey(DatabaseMetaData metaData, String schema, Table table) throws SQLException {
+        ResultSet keyData = metaData.getPrimaryKeys(null, schema, table.getTableName());
+        // the result is ordered by column name, so place each column by its position in the key
+        Map<Short, String> columns = new TreeMap<Short, String>();
+
+        while (keyData.next()) {
+            Map<String, Object> values = readMetaData(keyData, _columnsForPrimaryKey);
+            columns.put((Short) values.get("KEY_SEQ"), (String) values.get("COLUMN_NAME"));
+            table.setPrimaryKeyName((String) values.get("PK_NAME"));
+        }
+        keyData.close();
+        table.getPrimaryKey().addAll(columns.values());
+    }
+
+    List<ForeignKey> readForeignKeys(DatabaseMetaData metaData, String schema, String tableName) throws SQLException {
+        ResultSet keyData = metaData.getImportedKeys(null, schema, tableName);
+        Map<String, ForeignKey> keys = new LinkedHashMap<String, ForeignKey>();
+
+        // rows come ordered by referenced table and KEY_SEQ
+        while (keyData.next()) {
+            Map<String, Object> values = readMetaData(keyData, _columnsForForeignKey);
+            String name = (String) values.get("FK_NAME");
+            ForeignKey key = keys.get(name);
+            if (key == null) {
+                key = new ForeignKey();
+                key.setName(name);
+                key.setReferencedTableName((String) values.get("PKTABLE_NAME"));
+                if (values.get("UPDATE_RULE") != null) {
+                    key.setUpdateRule((Short) values.get("UPDATE_RULE"));
+                }
+                if (values.get("DELETE_RULE") != null) {
+                    key.setDeleteRule((Short) values.get("DELETE_RULE"));
+                }
+                keys.put(name, key);
+            }
+            key.addColumn((String) values.get("FKCOLUMN_NAME"), (String) values.get("PKCOLUMN_NAME"));
+        }
+        keyData.close();
+        return new ArrayList<ForeignKey>(keys.values());
+    }
     
+    /**
+     * @param constraintIndexes The indexes backing constraints, see {@link #readConstraintIndexes(Connection, String)}
+     * @return the indexes and unique constraints of the table, without those backing primary and foreign keys
+     */
+    List<Index> readIndexes(DatabaseMetaData metaData, String schema, String tableName, Map<String, String[]> constraintIndexes) throws SQLException {
+        ResultSet indexData = metaData.getIndexInfo(null, schema, tableName, false, false);
+        Map<String, Index> indexes = new LinkedHashMap<String, Index>();
+
+        // rows come ordered by uniqueness, name and ORDINAL_POSITION
+        while (indexData.next()) {
+            Map<String, Object> values = readMetaData(indexData, _columnsForIndex);
+            String name = (String) values.get("INDEX_NAME");
+            if (name == null || values.get("COLUMN_NAME") == null) {
+                continue;
+            }
+
+            Index index = indexes.get(name);
+            if (index == null) {
+                String[] constraint = constraintIndexes.get(name);
+                if (constraint != null && !"U".equals(constraint[1])) {
+                    // created with the primary or foreign key
+                    continue;
+                }
+
+                index = new Index();
+                index.setName(constraint == null ? name : constraint[0]);
+                index.setConstraint(constraint != null);
+                index.setUnique(Boolean.FALSE.equals(values.get("NON_UNIQUE")));
+                indexes.put(name, index);
+            }
+            index.addColumn((String) values.get("COLUMN_NAME"), "D".equals(values.get("ASC_OR_DESC")));
+        }
+        indexData.close();
+        return new ArrayList<Index>(indexes.values());
+    }
+
     List<Column> readColumns(DatabaseMetaData metaData, String schema, String tableName) throws SQLException {
         ResultSet columnData = metaData.getColumns(null, schema, escapeForSearch(metaData, tableName), "%");
 	    List<Column> columns = new ArrayList<Column>();
@@ -112,6 +369,19 @@ public class MetadataReader {
 		    Column column = new Column();
 		    column.setColumnName((String)values.get("COLUMN_NAME"));
 		    column.setColumnDataType((Integer) values.get("DATA_TYPE"));
+		    column.setTypeName((String) values.get("TYPE_NAME"));
+		    // resolved once here rather than for every value
+		    column.setExporter(typeExporters.resolve(column.getColumnDataType(), column.getTypeName()));
+		    Integer digits = (Integer) values.get("DECIMAL_DIGITS");
+		    if (digits != null) {
+		        column.setDecimalDigits(digits);
+		    }
+		    column.setNullable(!"NO".equals(values.get("IS_NULLABLE")));
+		    column.setDefaultValue((String) values.get("COLUMN_DEF"));
+		    String size = (String) values.get("COLUMN_SIZE");
+		    if (size != null) {
+		        column.setColumnSize(Integer.parseInt(size.trim()));
+		    }
 	        columns.add(column);
 	    }
 	    columnData.close();
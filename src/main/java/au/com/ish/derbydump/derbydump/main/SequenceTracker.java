@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.main;
+
+import java.io.PrintStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import au.com.ish.derbydump.derbydump.metadata.Column;
+import au.com.ish.derbydump.derbydump.metadata.Table;
+
+/**
+ * Follows the largest value of the identity and id columns of a table while
+ * its rows are exported, so the restore can set its sequences directly
+ * instead of scanning every table for the maximum.
+ *
+ */
+public class SequenceTracker
+{
+    /**
+     * The classpath resource defining the function the calls of {@link #write(PrintStream)} use
+     */
+    public static final String FUNCTION_RESOURCE = "/sequences.sql";
+    public static final String DROP_FUNCTION_SQL = "DROP FUNCTION derbydump_setval(TEXT, TEXT, BIGINT);";
+
+    private final String tableName;
+    private final List<Column> columns;
+    private final long[] max;
+    private final boolean[] seen;
+
+    private SequenceTracker(String tableName, List<Column> columns)
+    {
+        this.tableName = tableName;
+        this.columns = columns;
+        this.max = new long[columns.size()];
+        this.seen = new boolean[columns.size()];
+    }
+
+    /**
+     * @return a tracker for the table, or null if it has no column which may own a sequence
+     */
+    public static SequenceTracker forTable(Table table)
+    {
+        List<Column> tracked = new ArrayList<Column>();
+        for (Column column : table.getColumns())
+        {
+            if (column.isIdentity() || (column.getColumnName().equalsIgnoreCase("id") && isInteger(column.getColumnDataType())))
+            {
+                tracked.add(column);
+            }
+        }
+        return tracked.isEmpty() ? null : new SequenceTracker(table.getOutputName(), tracked);
+    }
+
+    /**
+     * @return the name of the table as it appears in the output
+     */
+    public String getTableName()
+    {
+        return tableName;
+    }
+
+    private static boolean isInteger(int type)
+    {
+        return type == Types.SMALLINT || type == Types.INTEGER || type == Types.BIGINT;
+    }
+
+    /**
+     * Take the values of the current row into account.
+     */
+    public void update(ResultSet row) throws SQLException
+    {
+        for (int i = 0; i < max.length; i++)
+        {
+            long value = row.getLong(columns.get(i).getColumnName());
+            if (!row.wasNull() && (!seen[i] || value > max[i]))
+            {
+                max[i] = value;
+                seen[i] = true;
+            }
+        }
+    }
+
+    /**
+     * Write a call setting the sequence of each tracked column to the value after the largest exported one.
+     * The function is defined in {@link #FUNCTION_RESOURCE}.
+     */
+    public void write(PrintStream output)
+    {
+        for (int i = 0; i < max.length; i++)
+        {
+            Column column = columns.get(i);
+
+            // same as the coalesce(MAX(col), 0)+1 of cleanup.sql, but never behind what Derby would generate next
+            long next = seen[i] ? max[i] + 1 : 1;
+            if (column.isIdentity() && column.getIdentityNextValue() > next)
+            {
+                next = column.getIdentityNextValue();
+            }
+
+            output.println("SELECT derbydump_setval('" + tableName.replace("'", "''") + "', '"
+                    + column.getColumnName().replace("'", "''") + "', " + next + ");");
+        }
+    }
+}
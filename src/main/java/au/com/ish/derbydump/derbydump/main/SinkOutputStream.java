@@ -0,0 +1,53 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.main;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Adapts a {@link DumpSink} to the stream the dump writes to.
+ *
+ */
+class SinkOutputStream extends OutputStream
+{
+    private final DumpSink sink;
+
+    SinkOutputStream(DumpSink sink)
+    {
+        this.sink = sink;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        sink.write(ByteBuffer.wrap(new byte[] { (byte) b }));
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        sink.write(ByteBuffer.wrap(b, off, len));
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        sink.flush();
+    }
+}
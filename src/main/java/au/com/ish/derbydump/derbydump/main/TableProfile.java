@@ -0,0 +1,148 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.main;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import au.com.ish.derbydump.derbydump.metadata.Column;
+import au.com.ish.derbydump.derbydump.metadata.Table;
+
+/**
+ * The cost of each column of a table, measured on every Nth row so that the
+ * other rows pay for no more than a counter. The time of a column is how long
+ * reading and writing its value took, including fetching large objects, and
+ * the time of fetching the row itself is shown apart.
+ *
+ */
+class TableProfile
+{
+    private final Table table;
+    private final int interval;
+    private final long[] nanos;
+    private final long[] bytes;
+    private long fetchNanos;
+    private long lastFetchNanos;
+    private long rows;
+    private long sampledRows;
+    private boolean sampled;
+
+    /**
+     * @param interval Every this many rows one is measured
+     */
+    TableProfile(Table table, int interval)
+    {
+        this.table = table;
+        this.interval = interval;
+        this.nanos = new long[table.getColumns().size()];
+        this.bytes = new long[table.getColumns().size()];
+    }
+
+    /**
+     * Move on to the next row.
+     *
+     * @return true if it is measured
+     */
+    boolean nextRow()
+    {
+        sampled = rows++ % interval == 0;
+        return sampled;
+    }
+
+    /**
+     * @return true if the current row is measured
+     */
+    boolean isSampled()
+    {
+        return sampled;
+    }
+
+    /**
+     * Time fetching the current row, counted once the row is written.
+     */
+    void recordFetch(long elapsed)
+    {
+        lastFetchNanos = elapsed;
+    }
+
+    /**
+     * @param column The position of the column in the table
+     * @param elapsed The nanoseconds taken to read and write the value
+     * @param written The number of bytes written for the value
+     */
+    void recordColumn(int column, long elapsed, long written)
+    {
+        nanos[column] += elapsed;
+        bytes[column] += written;
+    }
+
+    /**
+     * Count a measured row which was written. Rows left out of a sample are
+     * fetched but not written, and count for neither.
+     */
+    void recordRow()
+    {
+        sampledRows++;
+        fetchNanos += lastFetchNanos;
+    }
+
+    /**
+     * Write the columns from the most to the least expensive, with their time scaled up to all rows.
+     */
+    void report(PrintStream output)
+    {
+        output.println("Profile of " + table.getTableName() + ", measured " + sampledRows + " rows, one in " + interval + ":");
+        if (sampledRows == 0)
+        {
+            return;
+        }
+
+        long total = fetchNanos;
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < nanos.length; i++)
+        {
+            total += nanos[i];
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer a, Integer b)
+            {
+                return Long.compare(nanos[b], nanos[a]);
+            }
+        });
+
+        output.println(String.format("  %-30s %12s %7s %12s", "column", "est. ms", "share", "bytes/row"));
+        output.println(format("(fetch)", fetchNanos, total, -1));
+        List<Column> columns = table.getColumns();
+        for (int i : order)
+        {
+            output.println(format(columns.get(i).getColumnName(), nanos[i], total, bytes[i] / sampledRows));
+        }
+    }
+
+    private String format(String name, long elapsed, long total, long bytesPerRow)
+    {
+        double estimatedMillis = elapsed * (double) interval / 1e6;
+        double share = total == 0 ? 0 : 100.0 * elapsed / total;
+        return String.format("  %-30s %12.1f %6.1f%% %12s", name, estimatedMillis, share, bytesPerRow < 0 ? "" : Long.toString(bytesPerRow));
+    }
+}
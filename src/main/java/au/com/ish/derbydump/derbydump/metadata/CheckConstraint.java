@@ -0,0 +1,58 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.metadata;
+
+/**
+ * Represents a check constraint.
+ *
+ */
+public class CheckConstraint {
+
+	/**
+	 * Name of the constraint
+	 */
+	private String name;
+	/**
+	 * The condition, as Derby SQL
+	 */
+	private String definition;
+
+	/**
+	 * @return the name of the constraint
+	 */
+	public String getName() {
+		return name;
+	}
+	/**
+	 * @param name the name of the constraint
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+	/**
+	 * @return the condition, as Derby SQL
+	 */
+	public String getDefinition() {
+		return definition;
+	}
+	/**
+	 * @param definition the condition, as Derby SQL
+	 */
+	public void setDefinition(String definition) {
+		this.definition = definition;
+	}
+}
@@ -32,7 +32,8 @@ import java.sql.Timestamp;
 import java.sql.Types;
 
 import org.apache.commons.codec.binary.Hex;
-import org.apache.commons.io.IOUtils;
+
+import au.com.ish.derbydump.derbydump.lob.LobDeduplicator;
 
 /**
  * Represents a column in a database table.
@@ -48,6 +49,42 @@ public class Column {
 	 * Data type of the column
 	 */
 	private int columnDataType;
+	/**
+	 * Whether Derby generates values for this column
+	 */
+	private boolean identity;
+	/**
+	 * The next value Derby would generate for an identity column
+	 */
+	private long identityNextValue;
+	/**
+	 * Length or numeric precision of the column
+	 */
+	private int columnSize;
+	/**
+	 * Numeric scale of the column
+	 */
+	private int decimalDigits;
+	/**
+	 * Whether the column accepts NULL
+	 */
+	private boolean nullable = true;
+	/**
+	 * The SQL expression of the column default, or null for none
+	 */
+	private String defaultValue;
+	/**
+	 * The Derby name of the data type
+	 */
+	private String typeName;
+	/**
+	 * Writes the values of a type without built in handling, or null
+	 */
+	private TypeExporter exporter;
+	/**
+	 * Scratch state for writing primitive and temporal values, created on first use
+	 */
+	private ValueFormatter formatter;
 	
 	/**
 	 * @return the columnName
@@ -74,6 +111,144 @@ public class Column {
 		this.columnDataType = columnDataType;
 	}
 	
+	/**
+	 * @return true if this is an identity column
+	 */
+	public boolean isIdentity() {
+		return identity;
+	}
+	/**
+	 * @param identity whether this is an identity column
+	 */
+	public void setIdentity(boolean identity) {
+		this.identity = identity;
+	}
+	/**
+	 * @return the next value Derby would generate, if this is an identity column
+	 */
+	public long getIdentityNextValue() {
+		return identityNextValue;
+	}
+	/**
+	 * @param identityNextValue the next value Derby would generate
+	 */
+	public void setIdentityNextValue(long identityNextValue) {
+		this.identityNextValue = identityNextValue;
+	}
+	
+	/**
+	 * @return the length, or the precision of a numeric column
+	 */
+	public int getColumnSize() {
+		return columnSize;
+	}
+	/**
+	 * @param columnSize the length, or the precision of a numeric column
+	 */
+	public void setColumnSize(int columnSize) {
+		this.columnSize = columnSize;
+	}
+	/**
+	 * @return the scale of a numeric column
+	 */
+	public int getDecimalDigits() {
+		return decimalDigits;
+	}
+	/**
+	 * @param decimalDigits the scale of a numeric column
+	 */
+	public void setDecimalDigits(int decimalDigits) {
+		this.decimalDigits = decimalDigits;
+	}
+	/**
+	 * @return true if the column accepts NULL
+	 */
+	public boolean isNullable() {
+		return nullable;
+	}
+	/**
+	 * @param nullable whether the column accepts NULL
+	 */
+	public void setNullable(boolean nullable) {
+		this.nullable = nullable;
+	}
+	/**
+	 * @return the SQL expression of the column default, or null for none
+	 */
+	public String getDefaultValue() {
+		return defaultValue;
+	}
+	/**
+	 * @param defaultValue the SQL expression of the column default, or null for none
+	 */
+	public void setDefaultValue(String defaultValue) {
+		this.defaultValue = defaultValue;
+	}
+	/**
+	 * @return the Derby name of the data type
+	 */
+	public String getTypeName() {
+		return typeName;
+	}
+	/**
+	 * @param typeName the Derby name of the data type
+	 */
+	public void setTypeName(String typeName) {
+		this.typeName = typeName;
+	}
+	/**
+	 * @return the exporter writing the values of this column, or null if they are handled here
+	 */
+	public TypeExporter getExporter() {
+		return exporter;
+	}
+	/**
+	 * @param exporter the exporter writing the values of this column, or null if they are handled here
+	 */
+	public void setExporter(TypeExporter exporter) {
+		this.exporter = exporter;
+	}
+
+	/**
+	 * @return the expression selecting this column under its own name
+	 */
+	public String getSelectExpression() {
+		String quoted = getQuotedName();
+		if (!hasSelectExpression()) {
+			return quoted;
+		}
+		return exporter.getSelectExpression(quoted) + " AS " + quoted;
+	}
+
+	/**
+	 * @return true if the column is selected through an expression rather than by name
+	 */
+	public boolean hasSelectExpression() {
+		return exporter != null && !exporter.getSelectExpression(getQuotedName()).equals(getQuotedName());
+	}
+
+	private String getQuotedName() {
+		return '"' + columnName.replace("\"", "\"\"") + '"';
+	}
+
+	/**
+	 * @return false for the types Derby cannot compare, which can be neither sorted nor indexed
+	 */
+	public boolean isOrderable() {
+		switch (getColumnDataType()) {
+			case Types.BLOB:
+			case Types.CLOB:
+			case Types.LONGVARBINARY:
+			case Types.LONGVARCHAR:
+			case Types.SQLXML:
+			case Types.JAVA_OBJECT:
+			case Types.OTHER:
+				return false;
+			default:
+				return true;
+		}
+	}
+	
 	/**
 	 * Get a string value for the value in this column in the datarow
 	 * 
@@ -82,13 +257,33 @@ public class Column {
 	 * @throws IOException 
 	 */
 	public void toString(ResultSet dataRow, PrintStream output) throws SQLException, IOException {
+		toString(dataRow, output, null);
+	}
+
+	/**
+	 * Get a string value for the value in this column in the datarow
+	 * 
+	 * @param dataRow The row which we are exporting
+	 * @param lobs If not null, binary values are written as references to deduplicated copies
+	 * @throws IOException 
+	 */
+	public void toString(ResultSet dataRow, PrintStream output, LobDeduplicator lobs) throws SQLException, IOException {
+
+		if (exporter != null) {
+			exporter.write(dataRow, columnName, output);
+			return;
+		}
 
 		switch (getColumnDataType()) {
 			case Types.BINARY:
 			case Types.VARBINARY:
 			case Types.BLOB: {
 				InputStream obj = dataRow.getBinaryStream(columnName);
-				processBinaryData(obj, output);
+				if (lobs != null && obj != null) {
+					lobs.writeReference(obj, output);
+				} else {
+					processBinaryData(obj, output);
+				}
 				return;
 			}
 
@@ -108,47 +303,54 @@ public class Column {
 
 			case Types.TIME: {
 				Time obj = dataRow.getTime(columnName);
-				processStringData(obj, output);
+				if (obj == null) {
+					formatter().writeNull(output);
+				} else {
+					formatter().writeTime(obj.getTime(), output);
+				}
 				return;
 			}
 
 			case Types.DATE: {
 				Date obj = dataRow.getDate(columnName);
-				processStringData(obj, output);
+				if (obj == null) {
+					formatter().writeNull(output);
+				} else {
+					formatter().writeDate(obj.getTime(), output);
+				}
 				return;
 			}
 			
 			case Types.TIMESTAMP: {
 				Timestamp obj = dataRow.getTimestamp(columnName);
-				processStringData(obj, output);
+				if (obj == null) {
+					formatter().writeNull(output);
+				} else {
+					formatter().writeTimestamp(obj.getTime(), obj.getNanos(), output);
+				}
 				return;
 			}
 
 			case Types.SMALLINT: {
-				Object obj = dataRow.getObject(columnName);
-				if (obj == null)
-				{
-				    output.print("NULL");
-				}
-				else
-				{
-				    output.print("'");
-				    output.print(obj.toString());
-				    output.print("'");
+				int value = dataRow.getInt(columnName);
+				if (dataRow.wasNull()) {
+					formatter().writeNull(output);
+				} else {
+					formatter().writeLong(value, true, output);
 				}
 				return;
 			}
 
-			case Types.BIGINT: {
-				Object obj = dataRow.getObject(columnName);
-				nullOrToString(obj, output);
-				return;
-			}
-
+			case Types.BIGINT:
 			case Types.INTEGER: {
-				Object obj = dataRow.getObject(columnName);
-				nullOrToString(obj, output);
-                return;
+				// dataRow.getLong() always returns a value. only way to check the null is wasNull() method
+				long value = dataRow.getLong(columnName);
+				if (dataRow.wasNull()) {
+					formatter().writeNull(output);
+				} else {
+					formatter().writeLong(value, false, output);
+				}
+				return;
 			}
 			
 			case Types.NUMERIC:
@@ -160,43 +362,119 @@ public class Column {
 
 			case Types.REAL:
 			case Types.FLOAT: {
-				Float obj = dataRow.getFloat(columnName);
-				// dataRow.getFloat() always returns a value. only way to check the null is wasNull() method
-				
-				if (dataRow.wasNull())
-		        {
-		            output.print("NULL");
-		        }
-		        else
-		        {
-		            output.print(obj.toString());
-		        }
-
+				float value = dataRow.getFloat(columnName);
+				if (dataRow.wasNull()) {
+					formatter().writeNull(output);
+				} else {
+					formatter().writeFloat(value, output);
+				}
 				return;
 			}
 
 			case Types.DOUBLE: {
-				Double obj = dataRow.getDouble(columnName);
-				if (dataRow.wasNull())
-		        {
-		            output.print("NULL");
-		        }
-		        else
-		        {
-		            output.print(obj.toString());
-		        }
-
+				double value = dataRow.getDouble(columnName);
+				if (dataRow.wasNull()) {
+					formatter().writeNull(output);
+				} else {
+					formatter().writeDouble(value, output);
+				}
 				return;
 			}
 
 			default: {
-				Object obj = dataRow.getObject(columnName);
-				nullOrToString(obj, output);
-                return;
+				// quoted, as the text of an unknown type may be anything
+				String obj = dataRow.getString(columnName);
+				processStringData(obj, output);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Write a value as read from a file written by Derby's SYSCS_EXPORT procedures,
+	 * giving the same output as {@link #toString(ResultSet, PrintStream)}.
+	 * 
+	 * @param value The text Derby exported, with delimiters removed and
+	 *            binary values in hex, or null for NULL
+	 * @param output Where the value is written
+	 */
+	public void writeExported(String value, PrintStream output) {
+		if (value == null) {
+			output.print("NULL");
+			return;
+		}
+
+		if (exporter != null) {
+			exporter.writeExported(value, output);
+			return;
+		}
+
+		switch (getColumnDataType()) {
+			case Types.BINARY:
+			case Types.VARBINARY:
+			case Types.BLOB:
+				output.print("decode('");
+				output.print(value.toUpperCase());
+				output.print("', 'hex')");
+				return;
+
+			case Types.CLOB:
+			case Types.CHAR:
+			case Types.LONGNVARCHAR:
+			case Types.VARCHAR:
+				processStringData(value, output);
+				return;
+
+			case Types.TIME:
+				formatter().writeTime(Time.valueOf(value).getTime(), output);
+				return;
+
+			case Types.DATE:
+				formatter().writeDate(Date.valueOf(value).getTime(), output);
+				return;
+
+			case Types.TIMESTAMP: {
+				Timestamp timestamp = Timestamp.valueOf(value);
+				formatter().writeTimestamp(timestamp.getTime(), timestamp.getNanos(), output);
+				return;
 			}
+
+			case Types.SMALLINT:
+				formatter().writeLong(Long.parseLong(value), true, output);
+				return;
+
+			case Types.BIGINT:
+			case Types.INTEGER:
+				formatter().writeLong(Long.parseLong(value), false, output);
+				return;
+
+			case Types.NUMERIC:
+			case Types.DECIMAL:
+				output.print(new BigDecimal(value).toString());
+				return;
+
+			case Types.REAL:
+			case Types.FLOAT:
+				formatter().writeFloat(Float.parseFloat(value), output);
+				return;
+
+			case Types.DOUBLE:
+				formatter().writeDouble(Double.parseDouble(value), output);
+				return;
+
+			default:
+				processStringData(value, output);
+				return;
 		}
 	}
 
+	private ValueFormatter formatter() {
+		if (formatter == null) {
+			formatter = new ValueFormatter();
+		}
+		return formatter;
+	}
+
 	static void nullOrToString(Object obj, PrintStream output)
 	{
         if (obj == null)
@@ -276,7 +554,7 @@ public class Column {
 
         try (Reader br = new BufferedReader(data.getCharacterStream()))
         {
-            processStringData(IOUtils.toString(br), output);
+            processCharacterData(br, output);
         }
         catch (SQLException | IOException e)
         {
@@ -285,10 +563,9 @@ public class Column {
 	}
 
 	/**
-	 * @param data String to process
-	 * @return String representation of string data after escaping.
+	 * @param data String to process, written as a quoted and escaped literal
 	 */
-	private static void processStringData(Object data, PrintStream output) {
+	public static void processStringData(Object data, PrintStream output) {
 		if (data == null)
 		{
 			output.print("NULL");
@@ -300,6 +577,24 @@ public class Column {
 		output.print("'");
 	}
 
+	/**
+	 * Write text read from a stream as a quoted and escaped literal, the same as
+	 * {@link #processStringData(Object, PrintStream)}, without holding all of it
+	 * in memory. Every escape replaces a single character, so the text can be
+	 * escaped a block at a time.
+	 *
+	 * @param data Text to process, not null
+	 */
+	public static void processCharacterData(Reader data, PrintStream output) throws IOException {
+		output.print("'");
+		char[] buf = new char[8192];
+		int len;
+		while ((len = data.read(buf)) > 0) {
+			output.print(escapeQuotes(new String(buf, 0, len)));
+		}
+		output.print("'");
+	}
+
 	/**
 	 * Escapes sql special characters
 	 *
@@ -17,7 +17,12 @@
 package au.com.ish.derbydump.derbydump.metadata;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 
 /**
@@ -45,6 +50,118 @@ public class Database {
         }
     }
 
+	/**
+	 * Group the tables so that every table comes in a later layer than the
+	 * tables it refers to. The tables of one layer do not depend on each
+	 * other and can be loaded in any order, or concurrently. Within a layer the
+	 * catalog order is kept. References to tables which are not part of this
+	 * database, and references to the table itself, are ignored. A cycle is
+	 * broken at the first of its tables in catalog order, see
+	 * {@link #hasCycles()}.
+	 * 
+	 * @return the tables by dependency layer, starting with the tables which
+	 *         refer to no other table
+	 */
+	public List<List<Table>> getDependencyLayers() {
+		Map<String, Table> byName = getTablesByName();
+
+		// a depth first walk gives an order with the parents first, apart from broken cycles
+		Set<Table> ordered = new LinkedHashSet<Table>();
+		Set<Table> visiting = new HashSet<Table>();
+		for (Table table : tables) {
+			visit(table, byName, visiting, ordered);
+		}
+
+		Map<Table, Integer> layerOf = new HashMap<Table, Integer>();
+		List<List<Table>> layers = new ArrayList<List<Table>>();
+		for (Table table : ordered) {
+			int layer = 0;
+			for (Table parent : getParents(table, byName)) {
+				Integer parentLayer = layerOf.get(parent);
+				// a parent without a layer yet is the far end of a broken cycle
+				if (parentLayer != null && parentLayer >= layer) {
+					layer = parentLayer + 1;
+				}
+			}
+			layerOf.put(table, layer);
+			while (layers.size() <= layer) {
+				layers.add(new ArrayList<Table>());
+			}
+		}
+
+		// fill the layers in catalog order
+		for (Table table : tables) {
+			layers.get(layerOf.get(table)).add(table);
+		}
+		return layers;
+	}
+
+	/**
+	 * @return the tables ordered so that each table comes after the tables it refers to,
+	 *         as far as cycles allow
+	 */
+	public List<Table> getTablesInDependencyOrder() {
+		List<Table> ordered = new ArrayList<Table>();
+		for (List<Table> layer : getDependencyLayers()) {
+			ordered.addAll(layer);
+		}
+		return ordered;
+	}
+
+	/**
+	 * @return true if the foreign keys between the tables form a cycle, so that
+	 *         no order loads every parent row before its children
+	 */
+	public boolean hasCycles() {
+		Map<String, Table> byName = getTablesByName();
+		Set<Table> seen = new HashSet<Table>();
+		for (Table table : getTablesInDependencyOrder()) {
+			seen.add(table);
+			for (Table parent : getParents(table, byName)) {
+				if (!seen.contains(parent)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private Map<String, Table> getTablesByName() {
+		Map<String, Table> byName = new HashMap<String, Table>();
+		for (Table table : tables) {
+			byName.put(table.getTableName(), table);
+		}
+		return byName;
+	}
+
+	/**
+	 * @return the other tables of this database the table refers to
+	 */
+	private static List<Table> getParents(Table table, Map<String, Table> byName) {
+		List<Table> parents = new ArrayList<Table>();
+		for (ForeignKey key : table.getForeignKeys()) {
+			Table parent = byName.get(key.getReferencedTableName());
+			if (parent != null && parent != table) {
+				parents.add(parent);
+			}
+		}
+		return parents;
+	}
+
+	private static void visit(Table table, Map<String, Table> byName, Set<Table> visiting, Set<Table> ordered) {
+		if (ordered.contains(table) || !visiting.add(table)) {
+			// done already, or part of a cycle which is broken here
+			return;
+		}
+
+		for (Table parent : getParents(table, byName)) {
+			visit(parent, byName, visiting, ordered);
+		}
+
+		visiting.remove(table);
+		ordered.add(table);
+	}
+
 	/**
 	 * @return the databaseName
 	 */
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.metadata;
+
+import java.sql.DatabaseMetaData;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represents a foreign key from one table to another.
+ *
+ */
+public class ForeignKey {
+
+	/**
+	 * Name of the constraint
+	 */
+	private String name;
+	/**
+	 * Columns of the referencing table, in key order
+	 */
+	private List<String> columns = new ArrayList<String>();
+	/**
+	 * Name of the referenced table in the database
+	 */
+	private String referencedTableName;
+	/**
+	 * Columns of the referenced table, matching the order of columns
+	 */
+	private List<String> referencedColumns = new ArrayList<String>();
+	/**
+	 * What happens to referencing rows when the referenced row is deleted, one
+	 * of the DatabaseMetaData.importedKey constants
+	 */
+	private int deleteRule = DatabaseMetaData.importedKeyNoAction;
+	/**
+	 * What happens to referencing rows when the referenced key is updated
+	 */
+	private int updateRule = DatabaseMetaData.importedKeyNoAction;
+
+	/**
+	 * @return the name of the constraint
+	 */
+	public String getName() {
+		return name;
+	}
+	/**
+	 * @param name the name of the constraint
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+	/**
+	 * @return the referencing columns
+	 */
+	public List<String> getColumns() {
+		return columns;
+	}
+	/**
+	 * @return the name of the referenced table
+	 */
+	public String getReferencedTableName() {
+		return referencedTableName;
+	}
+	/**
+	 * @param referencedTableName the name of the referenced table
+	 */
+	public void setReferencedTableName(String referencedTableName) {
+		this.referencedTableName = referencedTableName;
+	}
+	/**
+	 * @return the referenced columns
+	 */
+	public List<String> getReferencedColumns() {
+		return referencedColumns;
+	}
+	/**
+	 * @return the DatabaseMetaData.importedKey constant for deletes
+	 */
+	public int getDeleteRule() {
+		return deleteRule;
+	}
+	/**
+	 * @param deleteRule the DatabaseMetaData.importedKey constant for deletes
+	 */
+	public void setDeleteRule(int deleteRule) {
+		this.deleteRule = deleteRule;
+	}
+	/**
+	 * @return the DatabaseMetaData.importedKey constant for updates
+	 */
+	public int getUpdateRule() {
+		return updateRule;
+	}
+	/**
+	 * @param updateRule the DatabaseMetaData.importedKey constant for updates
+	 */
+	public void setUpdateRule(int updateRule) {
+		this.updateRule = updateRule;
+	}
+
+	/**
+	 * Adds a pair of columns to the key.
+	 *
+	 * @param column The referencing column
+	 * @param referencedColumn The column it refers to
+	 */
+	public void addColumn(String column, String referencedColumn) {
+		columns.add(column);
+		referencedColumns.add(referencedColumn);
+	}
+}
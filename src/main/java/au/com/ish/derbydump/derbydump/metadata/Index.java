@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.metadata;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represents an index, or a unique constraint and the index backing it.
+ *
+ */
+public class Index {
+
+	/**
+	 * Name of the index, or of the constraint
+	 */
+	private String name;
+	/**
+	 * Whether the values of the columns are unique
+	 */
+	private boolean unique;
+	/**
+	 * Whether this is a unique constraint rather than a plain index
+	 */
+	private boolean constraint;
+	/**
+	 * Indexed columns, in index order
+	 */
+	private List<String> columns = new ArrayList<String>();
+	/**
+	 * Whether each of the columns is sorted descending
+	 */
+	private List<Boolean> descending = new ArrayList<Boolean>();
+
+	/**
+	 * @return the name of the index or constraint
+	 */
+	public String getName() {
+		return name;
+	}
+	/**
+	 * @param name the name of the index or constraint
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+	/**
+	 * @return true if the values of the columns are unique
+	 */
+	public boolean isUnique() {
+		return unique;
+	}
+	/**
+	 * @param unique whether the values of the columns are unique
+	 */
+	public void setUnique(boolean unique) {
+		this.unique = unique;
+	}
+	/**
+	 * @return true if this is a unique constraint rather than a plain index
+	 */
+	public boolean isConstraint() {
+		return constraint;
+	}
+	/**
+	 * @param constraint whether this is a unique constraint rather than a plain index
+	 */
+	public void setConstraint(boolean constraint) {
+		this.constraint = constraint;
+	}
+	/**
+	 * @return the indexed columns
+	 */
+	public List<String> getColumns() {
+		return columns;
+	}
+	/**
+	 * @param position The position of a column in the index
+	 * @return true if that column is sorted descending
+	 */
+	public boolean isDescending(int position) {
+		return descending.get(position);
+	}
+
+	/**
+	 * Adds a column at the end of the index.
+	 *
+	 * @param column The column name
+	 * @param descending Whether the column is sorted descending
+	 */
+	public void addColumn(String column, boolean descending) {
+		columns.add(column);
+		this.descending.add(descending);
+	}
+}
@@ -34,6 +34,42 @@ public class Table {
 	 * Name of the table in the database.
 	 */
 	private String tableName;
+	/**
+	 * Name of the table in the output, if different.
+	 */
+	private String outputName;
+	/**
+	 * Condition limiting the rows read, or null for all rows.
+	 */
+	private String whereClause;
+	/**
+	 * Whether only some of the columns are read.
+	 */
+	private boolean projected;
+	/**
+	 * Names of the primary key columns, in key order.
+	 */
+	private List<String> primaryKey = new ArrayList<String>();
+	/**
+	 * Foreign keys from this table to others.
+	 */
+	private List<ForeignKey> foreignKeys = new ArrayList<ForeignKey>();
+	/**
+	 * Name of the primary key constraint.
+	 */
+	private String primaryKeyName;
+	/**
+	 * Indexes and unique constraints, apart from those backing the primary and foreign keys.
+	 */
+	private List<Index> indexes = new ArrayList<Index>();
+	/**
+	 * Check constraints of this table.
+	 */
+	private List<CheckConstraint> checkConstraints = new ArrayList<CheckConstraint>();
+	/**
+	 * Whether the rows are read in key order.
+	 */
+	private boolean orderedByKey;
 
 	/**
 	 * @param schema Database schema name
@@ -42,11 +78,44 @@ public class Table {
 	 */
 	public String getSelectQuery(String schema) {
 		StringBuilder stringBuilder = new StringBuilder();
-		stringBuilder.append("SELECT * FROM ").append(schema).append(".");
+		stringBuilder.append("SELECT ");
+		if (projected || hasSelectExpressions()) {
+			// name the columns so that Derby never reads the others
+			for (Column c : getColumns()) {
+				stringBuilder.append(c.getSelectExpression()).append(",");
+			}
+			stringBuilder.deleteCharAt(stringBuilder.length()-1);
+		} else {
+			stringBuilder.append("*");
+		}
+		stringBuilder.append(" FROM ").append(schema).append(".");
 		stringBuilder.append(tableName);
+		appendWhere(stringBuilder);
+		if (orderedByKey && !getOrderColumns().isEmpty()) {
+			stringBuilder.append(" ORDER BY ");
+			for (String column : getOrderColumns()) {
+				stringBuilder.append('"').append(column.replace("\"", "\"\"")).append("\",");
+			}
+			stringBuilder.deleteCharAt(stringBuilder.length()-1);
+		}
 		return stringBuilder.toString();
 	}
 
+	private boolean hasSelectExpressions() {
+		for (Column c : getColumns()) {
+			if (c.hasSelectExpression()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void appendWhere(StringBuilder stringBuilder) {
+		if (whereClause != null) {
+			stringBuilder.append(" WHERE ").append(whereClause);
+		}
+	}
+
 	/**
 	 * Computes a string representation of the count query for a table,
 	 * calculating the number of rows present in the table.
@@ -59,6 +128,7 @@ public class Table {
 		StringBuilder stringBuilder = new StringBuilder();
 		stringBuilder.append("SELECT COUNT(*) FROM ").append(schema).append(".");
 		stringBuilder.append(tableName);
+		appendWhere(stringBuilder);
 		return stringBuilder.toString();
 	}
 
@@ -70,7 +140,7 @@ public class Table {
 	public String getInsertSQL() {
 		StringBuilder output = new StringBuilder();
 
-		output.append("INSERT INTO ").append(getTableName()).append(" (");
+		output.append("INSERT INTO ").append(getOutputName()).append(" (");
 
 		for (Column c : getColumns()) {
 			output.append(c.getColumnName());
@@ -90,8 +160,134 @@ public class Table {
 		return columns;
 	}
 
+	/**
+	 * Restrict the table to some of its columns. Only these are read and written.
+	 *
+	 * @param retained The columns to keep, in output order
+	 */
+	public void projectColumns(Collection<Column> retained) {
+		columns = new ArrayList<Column>(retained);
+		projected = true;
+	}
+
+	/**
+	 * @return the condition limiting the rows read, or null for all rows
+	 */
+	public String getWhereClause() {
+		return whereClause;
+	}
+
+	/**
+	 * @param whereClause
+	 *            a Derby SQL condition limiting the rows read, or null for all rows
+	 */
+	public void setWhereClause(String whereClause) {
+		this.whereClause = whereClause;
+	}
+
+	/**
+	 * @return true if the rows are read in the order of {@link #getOrderColumns()}
+	 */
+	public boolean isOrderedByKey() {
+		return orderedByKey;
+	}
+
+	/**
+	 * @param orderedByKey
+	 *            whether to read the rows in a stable order, so that dumps of
+	 *            the same data are identical
+	 */
+	public void setOrderedByKey(boolean orderedByKey) {
+		this.orderedByKey = orderedByKey;
+	}
+
+	/**
+	 * @return the primary key, or without one every output column which can be sorted
+	 */
+	public List<String> getOrderColumns() {
+		if (!primaryKey.isEmpty()) {
+			return primaryKey;
+		}
+		List<String> names = new ArrayList<String>();
+		for (Column c : getColumns()) {
+			if (c.isOrderable()) {
+				names.add(c.getColumnName());
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * @return the names of the primary key columns, empty if there is no primary key
+	 */
+	public List<String> getPrimaryKey() {
+		return primaryKey;
+	}
+
+	/**
+	 * @return the name of the primary key constraint
+	 */
+	public String getPrimaryKeyName() {
+		return primaryKeyName;
+	}
+
+	/**
+	 * @param primaryKeyName
+	 *            the name of the primary key constraint
+	 */
+	public void setPrimaryKeyName(String primaryKeyName) {
+		this.primaryKeyName = primaryKeyName;
+	}
+
+	/**
+	 * @return the indexes and unique constraints
+	 */
+	public List<Index> getIndexes() {
+		return indexes;
+	}
+
+	/**
+	 * @return the check constraints
+	 */
+	public List<CheckConstraint> getCheckConstraints() {
+		return checkConstraints;
+	}
+
+	/**
+	 * @return the foreign keys from this table to others
+	 */
+	public List<ForeignKey> getForeignKeys() {
+		return foreignKeys;
+	}
+
+	/**
+	 * Adds the given foreign key.
+	 * 
+	 * @param foreignKey
+	 *            The foreign key
+	 */
+	public void addForeignKey(ForeignKey foreignKey) {
+		if (foreignKey != null) {
+			foreignKeys.add(foreignKey);
+		}
+	}
+
+	/**
+	 * @param name
+	 *            The name of a column, matched case insensitively
+	 * @return the column or null if the table has no such column
+	 */
+	public Column getColumn(String name) {
+		for (Column column : columns) {
+			if (column.getColumnName().equalsIgnoreCase(name)) {
+				return column;
+			}
+		}
+		return null;
+	}
+
 	public boolean isExcluded() {
-		return getTableName().equals("--exclude--");
+		return getOutputName().equals("--exclude--");
 	}
 
 	/**
@@ -109,6 +305,21 @@ public class Table {
 		this.tableName = tableName;
 	}
 
+	/**
+	 * @return the name of the table in the output
+	 */
+	public String getOutputName() {
+		return outputName == null ? tableName : outputName;
+	}
+
+	/**
+	 * @param outputName
+	 *            the name to use in the output instead of the tableName
+	 */
+	public void setOutputName(String outputName) {
+		this.outputName = outputName;
+	}
+
 	/**
 	 * Adds the given column.
 	 * 
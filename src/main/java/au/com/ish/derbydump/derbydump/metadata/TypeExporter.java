@@ -0,0 +1,62 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.metadata;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Writes the values of a column type which {@link Column} has no built in
+ * handling for. Exporters are registered with {@link TypeExporters} and
+ * looked up once for each column when the metadata is read.
+ *
+ * {@link Column#processStringData(Object, PrintStream)} and
+ * {@link Column#processBinaryData(java.io.InputStream, PrintStream)} write
+ * escaped text and binary literals.
+ *
+ */
+public interface TypeExporter {
+
+	/**
+	 * @param column The quoted name of the column
+	 * @return the expression the column is selected with, such as a conversion
+	 *         to a type JDBC can read, or the name itself
+	 */
+	String getSelectExpression(String column);
+
+	/**
+	 * Write the value of the column in the current row as an SQL literal,
+	 * reading it as a stream where the type allows.
+	 *
+	 * @param row The row being exported
+	 * @param column The name of the column in the row
+	 * @param output Where the literal is written
+	 */
+	void write(ResultSet row, String column, PrintStream output) throws SQLException, IOException;
+
+	/**
+	 * Write a value as read from a file written by Derby's SYSCS_EXPORT
+	 * procedures, giving the same output as
+	 * {@link #write(ResultSet, String, PrintStream)}.
+	 *
+	 * @param value The exported text, never null
+	 * @param output Where the literal is written
+	 */
+	void writeExported(String value, PrintStream output);
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.metadata;
+
+/**
+ * Adds exporters to each registry made by {@link TypeExporters#createDefault()}. Implementations are found with
+ * {@link java.util.ServiceLoader}, by listing them in
+ * META-INF/services/au.com.ish.derbydump.derbydump.metadata.TypeExporterProvider
+ *
+ */
+public interface TypeExporterProvider {
+
+	/**
+	 * Register exporters, which replace any built in ones for the same type.
+	 */
+	void register(TypeExporters registry);
+}
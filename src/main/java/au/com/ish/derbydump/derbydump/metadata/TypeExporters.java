@@ -0,0 +1,197 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.metadata;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * The {@link TypeExporter}s by Derby type name and by JDBC type. A type name
+ * takes precedence, so that a user defined type can be handled apart from
+ * other Java objects.
+ *
+ * There is no registry shared by the whole process: each
+ * {@link au.com.ish.derbydump.derbydump.config.Configuration} has its own, so
+ * dumps running at the same time with different exporters do not see each
+ * other's.
+ *
+ */
+public class TypeExporters {
+
+	private final Map<String, TypeExporter> byName = new HashMap<String, TypeExporter>();
+	private final Map<Integer, TypeExporter> byType = new HashMap<Integer, TypeExporter>();
+
+	/**
+	 * @return a new registry of the built in exporters, and those of every
+	 *         {@link TypeExporterProvider} on the classpath
+	 */
+	public static TypeExporters createDefault() {
+		TypeExporters registry = new TypeExporters();
+		registry.register(Types.BOOLEAN, new BooleanExporter());
+		registry.register(Types.LONGVARCHAR, new LongTextExporter());
+		registry.register(Types.LONGVARBINARY, new LongBinaryExporter());
+		registry.register(Types.SQLXML, new XmlExporter());
+		registry.register("XML", new XmlExporter());
+		for (TypeExporterProvider provider : ServiceLoader.load(TypeExporterProvider.class)) {
+			provider.register(registry);
+		}
+		return registry;
+	}
+
+	/**
+	 * @param jdbcType A constant of {@link Types}
+	 */
+	public synchronized void register(int jdbcType, TypeExporter exporter) {
+		byType.put(jdbcType, exporter);
+	}
+
+	/**
+	 * @param typeName The Derby type name, such as the name of a user defined type
+	 */
+	public synchronized void register(String typeName, TypeExporter exporter) {
+		byName.put(typeName.toUpperCase(), exporter);
+	}
+
+	/**
+	 * @return the exporter for the column type, or null to use the handling built into {@link Column}
+	 */
+	public synchronized TypeExporter resolve(int jdbcType, String typeName) {
+		if (typeName != null) {
+			TypeExporter exporter = byName.get(typeName.toUpperCase());
+			if (exporter != null) {
+				return exporter;
+			}
+		}
+		return byType.get(jdbcType);
+	}
+
+	/**
+	 * PostgreSQL's boolean literals, read without boxing.
+	 */
+	static class BooleanExporter implements TypeExporter {
+
+		@Override
+		public String getSelectExpression(String column) {
+			return column;
+		}
+
+		@Override
+		public void write(ResultSet row, String column, PrintStream output) throws SQLException {
+			boolean value = row.getBoolean(column);
+			if (row.wasNull()) {
+				output.print("NULL");
+			} else {
+				output.print(value ? "true" : "false");
+			}
+		}
+
+		@Override
+		public void writeExported(String value, PrintStream output) {
+			output.print(Boolean.parseBoolean(value) ? "true" : "false");
+		}
+	}
+
+	/**
+	 * LONG VARCHAR, streamed and quoted like any other text.
+	 */
+	static class LongTextExporter implements TypeExporter {
+
+		@Override
+		public String getSelectExpression(String column) {
+			return column;
+		}
+
+		@Override
+		public void write(ResultSet row, String column, PrintStream output) throws SQLException, IOException {
+			Reader value = row.getCharacterStream(column);
+			if (value == null) {
+				output.print("NULL");
+				return;
+			}
+			try {
+				Column.processCharacterData(value, output);
+			} finally {
+				value.close();
+			}
+		}
+
+		@Override
+		public void writeExported(String value, PrintStream output) {
+			Column.processStringData(value, output);
+		}
+	}
+
+	/**
+	 * LONG VARCHAR FOR BIT DATA, streamed into hex like a BLOB.
+	 */
+	static class LongBinaryExporter implements TypeExporter {
+
+		@Override
+		public String getSelectExpression(String column) {
+			return column;
+		}
+
+		@Override
+		public void write(ResultSet row, String column, PrintStream output) throws SQLException, IOException {
+			InputStream value = row.getBinaryStream(column);
+			try {
+				Column.processBinaryData(value, output);
+			} finally {
+				if (value != null) {
+					value.close();
+				}
+			}
+		}
+
+		@Override
+		public void writeExported(String value, PrintStream output) {
+			// Derby exports binary data in hex already
+			output.print("decode('");
+			output.print(value.toUpperCase());
+			output.print("', 'hex')");
+		}
+	}
+
+	/**
+	 * Derby cannot return XML values to a client, so they are serialised to text in the query.
+	 */
+	static class XmlExporter implements TypeExporter {
+
+		@Override
+		public String getSelectExpression(String column) {
+			return "XMLSERIALIZE(" + column + " AS CLOB)";
+		}
+
+		@Override
+		public void write(ResultSet row, String column, PrintStream output) throws SQLException {
+			Column.processClobData(row.getClob(column), output);
+		}
+
+		@Override
+		public void writeExported(String value, PrintStream output) {
+			Column.processStringData(value, output);
+		}
+	}
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.metadata;
+
+import java.io.PrintStream;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+/**
+ * Writes numeric and temporal values as ASCII straight into the output,
+ * without boxing them or building intermediate strings. The output is the
+ * same as the toString() of the matching java and java.sql types, except
+ * that dates before year 1 end in " BC" as PostgreSQL expects, where
+ * toString() would silently print them as AD.
+ *
+ * An instance keeps scratch state, so it must only be used by one thread at a time.
+ *
+ */
+class ValueFormatter {
+
+	private static final byte[] NULL = { 'N', 'U', 'L', 'L' };
+	private static final byte[] DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' };
+	private static final byte[] LONG_MIN_VALUE = Long.toString(Long.MIN_VALUE).getBytes();
+
+	/**
+	 * Below this magnitude java prints floating point numbers without an exponent
+	 */
+	private static final double PLAIN_LIMIT = 1e7;
+
+	private final byte[] buf = new byte[48];
+	private Calendar calendar;
+
+	void writeNull(PrintStream output) {
+		output.write(NULL, 0, NULL.length);
+	}
+
+	/**
+	 * @param quoted whether to surround the digits with single quotes
+	 */
+	void writeLong(long value, boolean quoted, PrintStream output) {
+		int pos = 0;
+		if (quoted) {
+			buf[pos++] = '\'';
+		}
+		pos = putLong(value, pos);
+		if (quoted) {
+			buf[pos++] = '\'';
+		}
+		output.write(buf, 0, pos);
+	}
+
+	void writeFloat(float value, PrintStream output) {
+		if (isPlainIntegral(value)) {
+			writeIntegral((long) value, output);
+		} else {
+			output.print(Float.toString(value));
+		}
+	}
+
+	void writeDouble(double value, PrintStream output) {
+		if (isPlainIntegral(value)) {
+			writeIntegral((long) value, output);
+		} else {
+			output.print(Double.toString(value));
+		}
+	}
+
+	/**
+	 * Write as 'yyyy-mm-dd'
+	 */
+	void writeDate(long millis, PrintStream output) {
+		Calendar cal = calendar(millis);
+		int pos = 0;
+		buf[pos++] = '\'';
+		pos = putDate(cal, pos);
+		pos = putEra(cal, pos);
+		buf[pos++] = '\'';
+		output.write(buf, 0, pos);
+	}
+
+	/**
+	 * Write as 'hh:mm:ss'
+	 */
+	void writeTime(long millis, PrintStream output) {
+		Calendar cal = calendar(millis);
+		int pos = 0;
+		buf[pos++] = '\'';
+		pos = putTime(cal, pos);
+		buf[pos++] = '\'';
+		output.write(buf, 0, pos);
+	}
+
+	/**
+	 * Write as 'yyyy-mm-dd hh:mm:ss.f...' with trailing zeros of the fraction removed
+	 */
+	void writeTimestamp(long millis, int nanos, PrintStream output) {
+		Calendar cal = calendar(millis);
+		int pos = 0;
+		buf[pos++] = '\'';
+		pos = putDate(cal, pos);
+		buf[pos++] = ' ';
+		pos = putTime(cal, pos);
+		buf[pos++] = '.';
+		if (nanos == 0) {
+			buf[pos++] = '0';
+		} else {
+			pos = putPadded(nanos, 9, pos);
+			while (buf[pos - 1] == '0') {
+				pos--;
+			}
+		}
+		pos = putEra(cal, pos);
+		buf[pos++] = '\'';
+		output.write(buf, 0, pos);
+	}
+
+	private Calendar calendar(long millis) {
+		if (calendar == null) {
+			// not Calendar.getInstance(), which gives a Buddhist or Japanese calendar in some locales
+			calendar = new GregorianCalendar();
+		}
+		calendar.setTimeInMillis(millis);
+		return calendar;
+	}
+
+	private int putDate(Calendar cal, int pos) {
+		pos = putPadded(cal.get(Calendar.YEAR), 4, pos);
+		buf[pos++] = '-';
+		pos = putPadded(cal.get(Calendar.MONTH) + 1, 2, pos);
+		buf[pos++] = '-';
+		return putPadded(cal.get(Calendar.DAY_OF_MONTH), 2, pos);
+	}
+
+	/**
+	 * YEAR is the year of the era, so years before 1 need the era after them
+	 */
+	private int putEra(Calendar cal, int pos) {
+		if (cal.get(Calendar.ERA) == GregorianCalendar.BC) {
+			buf[pos++] = ' ';
+			buf[pos++] = 'B';
+			buf[pos++] = 'C';
+		}
+		return pos;
+	}
+
+	private int putTime(Calendar cal, int pos) {
+		pos = putPadded(cal.get(Calendar.HOUR_OF_DAY), 2, pos);
+		buf[pos++] = ':';
+		pos = putPadded(cal.get(Calendar.MINUTE), 2, pos);
+		buf[pos++] = ':';
+		return putPadded(cal.get(Calendar.SECOND), 2, pos);
+	}
+
+	private void writeIntegral(long value, PrintStream output) {
+		int pos = putLong(value, 0);
+		buf[pos++] = '.';
+		buf[pos++] = '0';
+		output.write(buf, 0, pos);
+	}
+
+	/**
+	 * @return true if java would print the value as digits followed by ".0"
+	 */
+	private static boolean isPlainIntegral(double value) {
+		// negative zero prints as "-0.0" so leave it to the JDK
+		if (value == 0) {
+			return Double.doubleToRawLongBits(value) == 0;
+		}
+		return Math.abs(value) < PLAIN_LIMIT && value == Math.rint(value);
+	}
+
+	/**
+	 * Put a non-negative value with leading zeros up to the given width
+	 */
+	private int putPadded(int value, int width, int pos) {
+		int digits = 1;
+		for (int v = value / 10; v > 0; v /= 10) {
+			digits++;
+		}
+		for (int i = digits; i < width; i++) {
+			buf[pos++] = '0';
+		}
+		return putLong(value, pos);
+	}
+
+	private int putLong(long value, int pos) {
+		if (value == Long.MIN_VALUE) {
+			System.arraycopy(LONG_MIN_VALUE, 0, buf, pos, LONG_MIN_VALUE.length);
+			return pos + LONG_MIN_VALUE.length;
+		}
+
+		if (value < 0) {
+			buf[pos++] = '-';
+			value = -value;
+		}
+
+		int digits = 1;
+		for (long v = value / 10; v > 0; v /= 10) {
+			digits++;
+		}
+
+		int end = pos + digits;
+		for (int i = end - 1; i >= pos; i--) {
+			buf[i] = DIGITS[(int) (value % 10)];
+			value /= 10;
+		}
+		return end;
+	}
+}
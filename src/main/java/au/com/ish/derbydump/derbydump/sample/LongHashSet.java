@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.sample;
+
+/**
+ * A set of primitive longs, using open addressing so that no value is boxed.
+ *
+ */
+public class LongHashSet
+{
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] values;
+    private boolean[] used;
+    private int size;
+
+    public LongHashSet()
+    {
+        this(1024);
+    }
+
+    /**
+     * @param expected The number of values expected, to size the table
+     */
+    public LongHashSet(int expected)
+    {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expected)
+        {
+            capacity <<= 1;
+        }
+        values = new long[capacity];
+        used = new boolean[capacity];
+    }
+
+    /**
+     * @return true if the value was not already present
+     */
+    public boolean add(long value)
+    {
+        int slot = find(values, used, value);
+        if (used[slot])
+        {
+            return false;
+        }
+
+        values[slot] = value;
+        used[slot] = true;
+        size++;
+
+        if (size > values.length * LOAD_FACTOR)
+        {
+            grow();
+        }
+        return true;
+    }
+
+    public boolean contains(long value)
+    {
+        return used[find(values, used, value)];
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return the slot holding the value, or the free slot where it belongs
+     */
+    private static int find(long[] values, boolean[] used, long value)
+    {
+        int mask = values.length - 1;
+        int slot = hash(value) & mask;
+        while (used[slot] && values[slot] != value)
+        {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow()
+    {
+        long[] newValues = new long[values.length * 2];
+        boolean[] newUsed = new boolean[values.length * 2];
+
+        for (int i = 0; i < values.length; i++)
+        {
+            if (used[i])
+            {
+                int slot = find(newValues, newUsed, values[i]);
+                newValues[slot] = values[i];
+                newUsed[slot] = true;
+            }
+        }
+        values = newValues;
+        used = newUsed;
+    }
+
+    private static int hash(long value)
+    {
+        // spread sequential keys over the table
+        long h = value * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.sample;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import au.com.ish.derbydump.derbydump.metadata.Column;
+import au.com.ish.derbydump.derbydump.metadata.Database;
+import au.com.ish.derbydump.derbydump.metadata.ForeignKey;
+import au.com.ish.derbydump.derbydump.metadata.Table;
+
+/**
+ * Picks a small, consistent subset of the rows of a database.
+ *
+ * Tables which do not refer to another dumped table are sampled by a stable
+ * hash of their primary key, or of their other values when there is none, so
+ * the same rows are chosen on every run. Tables referring to others only keep
+ * the rows whose parents were kept, which needs the parents to be dumped first,
+ * see {@link Database#getTablesInDependencyOrder()}. Only single column integer
+ * foreign keys to an earlier table are followed; the kept parent keys are held
+ * in primitive sets. Every other foreign key is reported and its rows are
+ * sampled as if it was not there.
+ *
+ */
+public class Sampler
+{
+    private final double fraction;
+    private final long maxRows;
+    private final Map<String, Table> tables = new HashMap<String, Table>();
+
+    /**
+     * The foreign keys followed, by table name
+     */
+    private final Map<String, List<ForeignKey>> followedKeys = new HashMap<String, List<ForeignKey>>();
+
+    /**
+     * Kept key values, by table name and referenced column
+     */
+    private final Map<String, Map<String, LongHashSet>> keys = new HashMap<String, Map<String, LongHashSet>>();
+
+    /**
+     * @param fraction The share of rows of a root table to keep, 1 for all
+     * @param maxRows The most rows kept of any table, 0 for no limit
+     * @param tables The tables being dumped, parents first
+     */
+    public Sampler(double fraction, long maxRows, List<Table> tables)
+    {
+        this.fraction = fraction;
+        this.maxRows = maxRows;
+
+        for (Table table : tables)
+        {
+            this.tables.put(table.getTableName(), table);
+        }
+
+        Map<String, Integer> positions = new HashMap<String, Integer>();
+        for (Table table : tables)
+        {
+            positions.put(table.getTableName(), positions.size());
+        }
+
+        for (Table table : tables)
+        {
+            List<ForeignKey> followed = getFollowedKeys(table, positions);
+            followedKeys.put(table.getTableName(), followed);
+            for (ForeignKey key : followed)
+            {
+                Map<String, LongHashSet> columns = keys.get(key.getReferencedTableName());
+                if (columns == null)
+                {
+                    columns = new HashMap<String, LongHashSet>();
+                    keys.put(key.getReferencedTableName(), columns);
+                }
+                columns.put(key.getReferencedColumns().get(0), new LongHashSet());
+            }
+        }
+    }
+
+    /**
+     * Start sampling a table. Every table it refers to must have been sampled already.
+     */
+    public TableSampler forTable(Table table)
+    {
+        List<String> checkColumns = new ArrayList<String>();
+        List<LongHashSet> checkKeys = new ArrayList<LongHashSet>();
+        for (ForeignKey key : followedKeys.get(table.getTableName()))
+        {
+            Map<String, LongHashSet> parentKeys = keys.get(key.getReferencedTableName());
+            checkColumns.add(key.getColumns().get(0));
+            checkKeys.add(parentKeys.get(key.getReferencedColumns().get(0)));
+        }
+
+        Map<String, LongHashSet> collect = keys.get(table.getTableName());
+        if (collect == null)
+        {
+            collect = new HashMap<String, LongHashSet>();
+        }
+
+        // children of sampled tables keep every row whose parents were kept
+        double tableFraction = checkColumns.isEmpty() ? fraction : 1;
+        return new TableSampler(getHashedColumns(table), tableFraction, maxRows, checkColumns, checkKeys, collect);
+    }
+
+    /**
+     * @return the primary key columns, or when there is none in the dump every
+     *         dumped column which can be compared, which leaves out the LOBs
+     */
+    private static List<String> getHashedColumns(Table table)
+    {
+        if (!table.getPrimaryKey().isEmpty() && hasColumns(table, table.getPrimaryKey()))
+        {
+            return table.getPrimaryKey();
+        }
+
+        List<String> hashed = new ArrayList<String>();
+        for (Column column : table.getColumns())
+        {
+            if (column.isOrderable())
+            {
+                hashed.add(column.getColumnName());
+            }
+        }
+        return hashed;
+    }
+
+    private static boolean hasColumns(Table table, List<String> columns)
+    {
+        for (String column : columns)
+        {
+            if (table.getColumn(column) == null)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the foreign keys of the table which sampling follows
+     */
+    private List<ForeignKey> getFollowedKeys(Table table, Map<String, Integer> positions)
+    {
+        List<ForeignKey> followed = new ArrayList<ForeignKey>();
+        for (ForeignKey key : table.getForeignKeys())
+        {
+            Table parent = tables.get(key.getReferencedTableName());
+            if (parent == null)
+            {
+                // the parent is not dumped, so no row of it was kept or left out
+                continue;
+            }
+
+            String reason = null;
+            if (parent == table)
+            {
+                reason = "it refers to its own table";
+            }
+            else if (positions.get(parent.getTableName()) > positions.get(table.getTableName()))
+            {
+                reason = "it is part of a cycle";
+            }
+            else if (key.getColumns().size() != 1)
+            {
+                reason = "it has more than one column";
+            }
+            else
+            {
+                Column column = table.getColumn(key.getColumns().get(0));
+                Column referenced = parent.getColumn(key.getReferencedColumns().get(0));
+                if (column == null || referenced == null)
+                {
+                    reason = "its columns are not dumped";
+                }
+                else if (!isInteger(column) || !isInteger(referenced))
+                {
+                    reason = "it is not an integer";
+                }
+            }
+
+            if (reason == null)
+            {
+                followed.add(key);
+            }
+            else
+            {
+                System.err.println("Sampling " + table.getOutputName() + " without following foreign key " + key.getName()
+                        + " to " + parent.getOutputName() + ", " + reason + ".");
+            }
+        }
+        return followed;
+    }
+
+    private static boolean isInteger(Column column)
+    {
+        int type = column.getColumnDataType();
+        return type == Types.SMALLINT || type == Types.INTEGER || type == Types.BIGINT;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.sample;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides which rows of one table are kept, see {@link Sampler}.
+ *
+ */
+public class TableSampler
+{
+    private final double fraction;
+    private final long maxRows;
+    private final List<String> hashedColumns;
+    private final String[] checkColumns;
+    private final LongHashSet[] checkKeys;
+    private final String[] collectColumns;
+    private final LongHashSet[] collectKeys;
+
+    private long kept;
+
+    TableSampler(List<String> hashedColumns, double fraction, long maxRows, List<String> checkColumns, List<LongHashSet> checkKeys, Map<String, LongHashSet> collect)
+    {
+        this.fraction = fraction;
+        this.maxRows = maxRows;
+        this.hashedColumns = hashedColumns;
+        this.checkColumns = checkColumns.toArray(new String[checkColumns.size()]);
+        this.checkKeys = checkKeys.toArray(new LongHashSet[checkKeys.size()]);
+        this.collectColumns = collect.keySet().toArray(new String[collect.size()]);
+        this.collectKeys = new LongHashSet[collectColumns.length];
+        for (int i = 0; i < collectColumns.length; i++)
+        {
+            collectKeys[i] = collect.get(collectColumns[i]);
+        }
+    }
+
+    /**
+     * @return true once no more rows will be kept
+     */
+    public boolean isFull()
+    {
+        return maxRows > 0 && kept >= maxRows;
+    }
+
+    /**
+     * Decide on the current row. If it is kept, its keys are recorded for the tables referring to it.
+     *
+     * @return true if the row should be dumped
+     */
+    public boolean accept(ResultSet row) throws SQLException
+    {
+        for (int i = 0; i < checkColumns.length; i++)
+        {
+            long value = row.getLong(checkColumns[i]);
+            if (!row.wasNull() && !checkKeys[i].contains(value))
+            {
+                return false;
+            }
+        }
+
+        if (fraction < 1 && !isSampled(row))
+        {
+            return false;
+        }
+
+        for (int i = 0; i < collectColumns.length; i++)
+        {
+            long value = row.getLong(collectColumns[i]);
+            if (!row.wasNull())
+            {
+                collectKeys[i].add(value);
+            }
+        }
+
+        kept++;
+        return true;
+    }
+
+    /**
+     * A stable choice based on the primary key, or on the values of the row when there is none,
+     * which does not depend on the order Derby returns the rows in.
+     */
+    private boolean isSampled(ResultSet row) throws SQLException
+    {
+        long hash = 0xcbf29ce484222325L;
+        for (String column : hashedColumns)
+        {
+            String value = row.getString(column);
+            hash = (hash ^ (value == null ? 0 : value.hashCode())) * 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+
+        // the top 53 bits as a uniform double in [0, 1)
+        return (hash >>> 11) * 0x1.0p-53 < fraction;
+    }
+}
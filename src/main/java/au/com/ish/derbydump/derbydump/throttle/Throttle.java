@@ -0,0 +1,264 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.throttle;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Slows a dump down so that it leaves room for the application using the same
+ * database.
+ *
+ * Rows and output bytes are each limited by a token bucket. The limits can be
+ * changed while the dump runs by editing the control file, a properties file
+ * using the same throttle.* keys as the configuration, or through JMX.
+ *
+ * In adaptive mode the time Derby takes to fetch each row is watched. While
+ * its recent average is above the threshold the row rate is halved every
+ * second, and once it is back below the rate grows again by a tenth a second
+ * until it no longer holds the dump back.
+ *
+ */
+public class Throttle implements ThrottleMBean
+{
+    private static final long ADJUST_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final TokenBucket rows;
+    private final TokenBucket bytes;
+    private final File controlFile;
+
+    private volatile long rowsPerSecond;
+    private volatile long latencyThreshold;
+    private volatile long adaptiveRowsPerSecond;
+
+    private long fetchStart;
+    private volatile double fetchLatency;
+
+    private long lastByteCount;
+    private long lastAdjust = System.nanoTime();
+    private long rowsSinceAdjust;
+    private long controlFileModified;
+
+    /**
+     * @param rowsPerSecond The most rows dumped a second, 0 for no limit
+     * @param bytesPerSecond The most bytes written a second, 0 for no limit
+     * @param latencyThresholdMicros Slow down while fetching a row takes longer than this, 0 to never adapt
+     * @param controlFile A properties file read again whenever it changes, may be null
+     */
+    public Throttle(long rowsPerSecond, long bytesPerSecond, long latencyThresholdMicros, File controlFile)
+    {
+        this.rowsPerSecond = rowsPerSecond;
+        this.rows = new TokenBucket(rowsPerSecond);
+        this.bytes = new TokenBucket(bytesPerSecond);
+        this.latencyThreshold = TimeUnit.MICROSECONDS.toNanos(latencyThresholdMicros);
+        this.controlFile = controlFile;
+    }
+
+    /**
+     * Called just before the next row is fetched from Derby.
+     */
+    public void fetchStarted()
+    {
+        fetchStart = System.nanoTime();
+    }
+
+    /**
+     * Called once Derby returned the next row.
+     */
+    public void fetchFinished()
+    {
+        // an exponential moving average over roughly the last hundred rows
+        fetchLatency += (System.nanoTime() - fetchStart - fetchLatency) / 100;
+    }
+
+    /**
+     * Called after each row is written, waits for as long as the limits require.
+     *
+     * @param byteCount The total number of bytes written so far
+     * @throws CancellationException if the thread is interrupted while waiting
+     */
+    public void rowWritten(long byteCount)
+    {
+        rowsSinceAdjust++;
+        long now = System.nanoTime();
+        if (now - lastAdjust >= ADJUST_INTERVAL)
+        {
+            checkControlFile();
+            adapt(rowsSinceAdjust * 1e9 / (now - lastAdjust));
+            lastAdjust = now;
+            rowsSinceAdjust = 0;
+        }
+
+        long wait = Math.max(rows.take(1), bytes.take(byteCount - lastByteCount));
+        lastByteCount = byteCount;
+
+        if (wait > 0)
+        {
+            try
+            {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while throttled");
+            }
+        }
+    }
+
+    private void adapt(double observedRowsPerSecond)
+    {
+        if (latencyThreshold <= 0)
+        {
+            return;
+        }
+
+        long adaptive = adaptiveRowsPerSecond;
+        if (fetchLatency > latencyThreshold)
+        {
+            long start = adaptive > 0 ? adaptive : (long) observedRowsPerSecond;
+            adaptive = Math.max(1, start / 2);
+        }
+        else if (adaptive > 0)
+        {
+            adaptive += Math.max(1, adaptive / 10);
+            if (adaptive > 2 * observedRowsPerSecond + 1 || (rowsPerSecond > 0 && adaptive >= rowsPerSecond))
+            {
+                // no longer the limiting factor
+                adaptive = 0;
+            }
+        }
+        else
+        {
+            return;
+        }
+
+        if (adaptive != adaptiveRowsPerSecond)
+        {
+            System.err.println("Fetch latency " + getFetchLatencyMicros() + "us, "
+                    + (adaptive == 0 ? "no longer limiting rows" : "limiting to " + adaptive + " rows per second"));
+            adaptiveRowsPerSecond = adaptive;
+            updateRowRate();
+        }
+    }
+
+    private void updateRowRate()
+    {
+        long configured = rowsPerSecond;
+        long adaptive = adaptiveRowsPerSecond;
+        if (configured > 0 && adaptive > 0)
+        {
+            rows.setRate(Math.min(configured, adaptive));
+        }
+        else
+        {
+            rows.setRate(Math.max(configured, adaptive));
+        }
+    }
+
+    private void checkControlFile()
+    {
+        if (controlFile == null || controlFile.lastModified() == controlFileModified)
+        {
+            return;
+        }
+        controlFileModified = controlFile.lastModified();
+
+        Properties control = new Properties();
+        try (FileInputStream in = new FileInputStream(controlFile))
+        {
+            control.load(in);
+        }
+        catch (IOException e)
+        {
+            // the file may be half written, try again with the next change
+            System.err.println("Could not read throttle control file " + controlFile + ": " + e.getMessage());
+            return;
+        }
+
+        try
+        {
+            setRowsPerSecond(Long.parseLong(control.getProperty("throttle.rowsPerSecond", String.valueOf(rowsPerSecond)).trim()));
+            setBytesPerSecond(Long.parseLong(control.getProperty("throttle.bytesPerSecond", String.valueOf(getBytesPerSecond())).trim()));
+            setLatencyThresholdMicros(Long.parseLong(control.getProperty("throttle.latencyThresholdMicros", String.valueOf(getLatencyThresholdMicros())).trim()));
+        }
+        catch (NumberFormatException e)
+        {
+            System.err.println("Ignoring invalid throttle control file " + controlFile + ": " + e.getMessage());
+            return;
+        }
+        System.err.println("Throttle set to " + rowsPerSecond + " rows and " + getBytesPerSecond() + " bytes per second");
+    }
+
+    @Override
+    public long getRowsPerSecond()
+    {
+        return rowsPerSecond;
+    }
+
+    @Override
+    public void setRowsPerSecond(long rowsPerSecond)
+    {
+        this.rowsPerSecond = Math.max(0, rowsPerSecond);
+        updateRowRate();
+    }
+
+    @Override
+    public long getBytesPerSecond()
+    {
+        return (long) bytes.getRate();
+    }
+
+    @Override
+    public void setBytesPerSecond(long bytesPerSecond)
+    {
+        bytes.setRate(Math.max(0, bytesPerSecond));
+    }
+
+    @Override
+    public long getLatencyThresholdMicros()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(latencyThreshold);
+    }
+
+    @Override
+    public void setLatencyThresholdMicros(long latencyThresholdMicros)
+    {
+        latencyThreshold = TimeUnit.MICROSECONDS.toNanos(Math.max(0, latencyThresholdMicros));
+        if (latencyThreshold == 0)
+        {
+            adaptiveRowsPerSecond = 0;
+            updateRowRate();
+        }
+    }
+
+    @Override
+    public long getAdaptiveRowsPerSecond()
+    {
+        return adaptiveRowsPerSecond;
+    }
+
+    @Override
+    public long getFetchLatencyMicros()
+    {
+        return (long) (fetchLatency / 1000);
+    }
+}
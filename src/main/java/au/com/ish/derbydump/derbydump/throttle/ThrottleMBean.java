@@ -0,0 +1,55 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.throttle;
+
+/**
+ * Management interface of a running {@link Throttle}.
+ *
+ */
+public interface ThrottleMBean
+{
+    /**
+     * @return the configured row limit, 0 for none
+     */
+    long getRowsPerSecond();
+
+    void setRowsPerSecond(long rowsPerSecond);
+
+    /**
+     * @return the configured output limit, 0 for none
+     */
+    long getBytesPerSecond();
+
+    void setBytesPerSecond(long bytesPerSecond);
+
+    /**
+     * @return the fetch latency above which the dump slows down, 0 to never adapt
+     */
+    long getLatencyThresholdMicros();
+
+    void setLatencyThresholdMicros(long latencyThresholdMicros);
+
+    /**
+     * @return the row limit currently applied by the adaptive mode, 0 for none
+     */
+    long getAdaptiveRowsPerSecond();
+
+    /**
+     * @return the recent average time Derby took to fetch a row, in microseconds
+     */
+    long getFetchLatencyMicros();
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.throttle;
+
+/**
+ * Hands out units at a steady rate, allowing a burst of up to one second's worth.
+ *
+ */
+class TokenBucket
+{
+    private double rate;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * @param rate Units per second, 0 for no limit
+     */
+    TokenBucket(double rate)
+    {
+        this.rate = rate;
+    }
+
+    synchronized double getRate()
+    {
+        return rate;
+    }
+
+    synchronized void setRate(double rate)
+    {
+        this.rate = rate;
+        tokens = Math.min(tokens, rate);
+    }
+
+    /**
+     * Take units out of the bucket, which may run into debt.
+     *
+     * @return how long to wait in nanoseconds until the debt is paid off
+     */
+    synchronized long take(long units)
+    {
+        if (rate <= 0)
+        {
+            return 0;
+        }
+
+        long now = System.nanoTime();
+        tokens = Math.min(rate, tokens + (now - lastRefill) * rate / 1e9);
+        lastRefill = now;
+
+        tokens -= units;
+        return tokens >= 0 ? 0 : (long) (-tokens * 1e9 / rate);
+    }
+}
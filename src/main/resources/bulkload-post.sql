@@ -0,0 +1,15 @@
+CREATE FUNCTION derbydump_restore_indexes() RETURNS void AS $$
+  DECLARE
+    saved RECORD;
+  BEGIN
+    FOR saved IN SELECT ddl FROM derbydump_saved_ddl ORDER BY phase, id
+    LOOP
+      RAISE NOTICE '%', saved.ddl;
+      EXECUTE saved.ddl;
+    END LOOP;
+  END;
+$$ LANGUAGE plpgsql;
+SELECT derbydump_restore_indexes();
+DROP FUNCTION derbydump_restore_indexes();
+DROP TABLE derbydump_saved_ddl;
+DROP TABLE derbydump_tables;
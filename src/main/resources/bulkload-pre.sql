@@ -0,0 +1,33 @@
+CREATE TEMPORARY TABLE derbydump_saved_ddl (id SERIAL, phase INTEGER, ddl TEXT);
+
+CREATE FUNCTION derbydump_drop_indexes() RETURNS void AS $$
+  DECLARE
+    target RECORD;
+  BEGIN
+    FOR target IN SELECT con.conname as name, rel.relname as tab, pg_get_constraintdef(con.oid) as def
+          from pg_constraint con
+          join pg_class rel on rel.oid=con.conrelid
+          where con.contype='f'
+            and (con.conrelid in (select c.oid from pg_class c join derbydump_tables t on c.relname=lower(t.name) where c.relkind='r' and pg_table_is_visible(c.oid))
+              or con.confrelid in (select c.oid from pg_class c join derbydump_tables t on c.relname=lower(t.name) where c.relkind='r' and pg_table_is_visible(c.oid)))
+    LOOP
+      RAISE NOTICE 'dropping foreign key %.%', target.tab, target.name;
+      INSERT INTO derbydump_saved_ddl (phase, ddl) VALUES (2, 'ALTER TABLE ' || quote_ident(target.tab) || ' ADD CONSTRAINT ' || quote_ident(target.name) || ' ' || target.def);
+      EXECUTE 'ALTER TABLE ' || quote_ident(target.tab) || ' DROP CONSTRAINT ' || quote_ident(target.name);
+    END LOOP;
+
+    -- indexes backing a primary key, unique or exclusion constraint are kept
+    FOR target IN SELECT i.relname as name, pg_get_indexdef(i.oid) as def
+          from pg_index x
+          join pg_class i on i.oid=x.indexrelid
+          where x.indrelid in (select c.oid from pg_class c join derbydump_tables t on c.relname=lower(t.name) where c.relkind='r' and pg_table_is_visible(c.oid))
+            and not exists (select 1 from pg_constraint con where con.conindid=x.indexrelid)
+    LOOP
+      RAISE NOTICE 'dropping index %', target.name;
+      INSERT INTO derbydump_saved_ddl (phase, ddl) VALUES (1, target.def);
+      EXECUTE 'DROP INDEX ' || quote_ident(target.name);
+    END LOOP;
+  END;
+$$ LANGUAGE plpgsql;
+SELECT derbydump_drop_indexes();
+DROP FUNCTION derbydump_drop_indexes();
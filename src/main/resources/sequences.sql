@@ -0,0 +1,15 @@
+CREATE FUNCTION derbydump_setval(tab TEXT, col TEXT, next_value BIGINT) RETURNS void AS $$
+  DECLARE
+    seq TEXT;
+  BEGIN
+    seq := pg_get_serial_sequence(lower(tab), lower(col));
+    IF seq IS NULL AND lower(col) = 'id' THEN
+      SELECT quote_ident(s.relname) INTO seq FROM pg_class s
+        WHERE s.relkind='S' AND s.relname=lower(tab) || '_seq' AND pg_table_is_visible(s.oid);
+    END IF;
+    IF seq IS NOT NULL THEN
+      RAISE NOTICE 'new sequence value for column %.%: %', tab, col, next_value;
+      PERFORM setval(seq, next_value, false);
+    END IF;
+  END;
+$$ LANGUAGE plpgsql;
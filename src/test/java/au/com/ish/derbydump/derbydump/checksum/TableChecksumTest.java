@@ -0,0 +1,132 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.checksum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class TableChecksumTest
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String[] ROWS = { "(1,'a')", "(2,'b')", "(3,NULL)", "(4,'it''s')" };
+
+    private static void addRow(TableChecksum checksum, String row)
+    {
+        byte[] bytes = row.getBytes(UTF8);
+        checksum.addRow(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void testOrderIndependent()
+    {
+        TableChecksum forward = new TableChecksum("T");
+        for (String row : ROWS)
+        {
+            addRow(forward, row);
+        }
+
+        TableChecksum backward = new TableChecksum("T");
+        for (int i = ROWS.length - 1; i >= 0; i--)
+        {
+            addRow(backward, ROWS[i]);
+        }
+
+        assertTrue(forward.matches(backward));
+        assertEquals(ROWS.length, backward.getRowCount());
+    }
+
+    @Test
+    public void testPartialsCombine()
+    {
+        TableChecksum whole = new TableChecksum("T");
+        for (String row : ROWS)
+        {
+            addRow(whole, row);
+        }
+
+        TableChecksum first = new TableChecksum("T");
+        addRow(first, ROWS[3]);
+        addRow(first, ROWS[0]);
+        TableChecksum second = new TableChecksum("T");
+        addRow(second, ROWS[2]);
+        addRow(second, ROWS[1]);
+
+        TableChecksum combined = new TableChecksum("T");
+        combined.add(second);
+        combined.add(first);
+        assertTrue(whole.matches(combined));
+    }
+
+    @Test
+    public void testRowsInPieces()
+    {
+        TableChecksum whole = new TableChecksum("T");
+        addRow(whole, ROWS[3]);
+
+        TableChecksum pieces = new TableChecksum("T");
+        byte[] bytes = ROWS[3].getBytes(UTF8);
+        pieces.update(bytes, 0, 3);
+        pieces.update(bytes, 3, bytes.length - 3);
+        pieces.endRow();
+
+        assertTrue(whole.matches(pieces));
+    }
+
+    @Test
+    public void testDetectsChanges()
+    {
+        TableChecksum original = new TableChecksum("T");
+        TableChecksum changed = new TableChecksum("T");
+        for (String row : ROWS)
+        {
+            addRow(original, row);
+            addRow(changed, row.replace("'b'", "'c'"));
+        }
+        assertFalse(original.matches(changed));
+
+        // a row swapped for a duplicate of another keeps the count but not the sum
+        TableChecksum duplicated = new TableChecksum("T");
+        addRow(duplicated, ROWS[0]);
+        addRow(duplicated, ROWS[0]);
+        addRow(duplicated, ROWS[2]);
+        addRow(duplicated, ROWS[3]);
+        assertFalse(original.matches(duplicated));
+    }
+
+    @Test
+    public void testFooterRoundTrip()
+    {
+        TableChecksum checksum = new TableChecksum("my table");
+        for (String row : ROWS)
+        {
+            addRow(checksum, row);
+        }
+
+        TableChecksum parsed = TableChecksum.parseFooter(checksum.toFooter());
+        assertEquals("my table", parsed.getTableName());
+        assertTrue(checksum.matches(parsed));
+
+        assertNull(TableChecksum.parseFooter("-- derbydump table checksums, verify with DumpVerifier"));
+        assertNull(TableChecksum.parseFooter("INSERT INTO T (A) VALUES "));
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.columnar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Locale;
+
+import org.apache.derby.jdbc.EmbeddedDriver;
+import org.junit.Test;
+
+public class ColumnChunkTest
+{
+    private static final String URL = "jdbc:derby:memory:columnChunk";
+
+    /**
+     * Read the values into the chunk and return the row group it writes.
+     */
+    private static byte[] write(ColumnChunk chunk, String... values) throws Exception
+    {
+        StringBuilder query = new StringBuilder("SELECT * FROM (VALUES ");
+        for (int i = 0; i < values.length; i++)
+        {
+            query.append(i == 0 ? "" : ", ");
+            query.append(values[i] == null ? "CAST(NULL AS VARCHAR(20))" : "CAST('" + values[i] + "' AS VARCHAR(20))");
+        }
+        query.append(") AS T(V)");
+        return write(chunk, query.toString());
+    }
+
+    private static byte[] write(ColumnChunk chunk, String query) throws Exception
+    {
+        new EmbeddedDriver();
+        try (Connection connection = DriverManager.getConnection(URL + ";create=true");
+             Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery(query))
+        {
+            while (rows.next())
+            {
+                chunk.read(rows);
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        chunk.write(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the last value of a chunk of fixed width values
+     */
+    private static long lastValue(byte[] chunk, int width)
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(chunk, chunk.length - width, width);
+        return width == 4 ? buffer.getInt() : buffer.getLong();
+    }
+
+    private static String[] repeat(int distinct, int times)
+    {
+        String[] values = new String[distinct * times];
+        for (int i = 0; i < values.length; i++)
+        {
+            values[i] = "value " + (i % distinct);
+        }
+        return values;
+    }
+
+    @Test
+    public void testRepeatedValuesUseDictionary() throws Exception
+    {
+        String[] values = { "b", "a", null, "b", "a", "b", "a", "b" };
+        byte[] dictionary = write(new ColumnChunk.TextChunk("V", 10, true), values);
+        byte[] plain = write(new ColumnChunk.TextChunk("V", 0, true), values);
+
+        assertEquals(ColumnChunk.ENCODING_DICTIONARY, dictionary[0]);
+        assertEquals(ColumnChunk.ENCODING_PLAIN, plain[0]);
+        assertTrue(dictionary.length < plain.length);
+    }
+
+    @Test
+    public void testTooManyDistinctValuesFallBackToPlain() throws Exception
+    {
+        // the fifth distinct value is read while the dictionary is in use
+        String[] values = repeat(10, 3);
+        byte[] fallback = write(new ColumnChunk.TextChunk("V", 4, true), values);
+
+        assertEquals(ColumnChunk.ENCODING_PLAIN, fallback[0]);
+        assertArrayEquals(write(new ColumnChunk.TextChunk("V", 0, true), values), fallback);
+    }
+
+    @Test
+    public void testMostlyUniqueValuesFallBackToPlain() throws Exception
+    {
+        // within the limit, but the dictionary would be larger than the values it replaces
+        String[] values = { "a", "b", "c", "d", "e", "a", null };
+        byte[] fallback = write(new ColumnChunk.TextChunk("V", 100, false), values);
+
+        assertEquals(ColumnChunk.ENCODING_PLAIN, fallback[0]);
+        assertArrayEquals(write(new ColumnChunk.TextChunk("V", 0, false), values), fallback);
+    }
+
+    @Test
+    public void testEachRowGroupStartsWithDictionary() throws Exception
+    {
+        ColumnChunk chunk = new ColumnChunk.TextChunk("V", 4, true);
+        byte[] first = write(chunk, repeat(10, 3));
+        byte[] second = write(chunk, repeat(3, 4));
+
+        assertEquals(ColumnChunk.ENCODING_PLAIN, first[0]);
+        assertEquals(ColumnChunk.ENCODING_DICTIONARY, second[0]);
+        assertArrayEquals(write(new ColumnChunk.TextChunk("V", 4, true), repeat(3, 4)), second);
+    }
+
+    @Test
+    public void testDatesInLocalesWithOtherCalendars() throws Exception
+    {
+        Locale previous = Locale.getDefault();
+        try
+        {
+            // a Buddhist and a Japanese imperial calendar
+            for (Locale locale : new Locale[] { new Locale("th", "TH"), new Locale("ja", "JP", "JP") })
+            {
+                Locale.setDefault(locale);
+                assertEquals(15831, lastValue(write(new ColumnChunk.DateChunk("V"),
+                        "SELECT * FROM (VALUES DATE('2013-05-06')) AS T(V)"), 4));
+                assertEquals(25689000, lastValue(write(new ColumnChunk.TimeChunk("V"),
+                        "SELECT * FROM (VALUES TIME('07:08:09')) AS T(V)"), 4));
+                assertEquals(15831L * 24 * 60 * 60 * 1000000 + 25689500000L, lastValue(write(
+                        new ColumnChunk.TimestampChunk("V"),
+                        "SELECT * FROM (VALUES TIMESTAMP('2013-05-06 07:08:09.5')) AS T(V)"), 8));
+            }
+        }
+        finally
+        {
+            Locale.setDefault(previous);
+        }
+    }
+}
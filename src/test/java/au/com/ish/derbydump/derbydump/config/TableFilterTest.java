@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+public class TableFilterTest
+{
+    @Test
+    public void testNoPatterns() throws Exception
+    {
+        TableFilter filter = new TableFilter(null, null, null);
+        assertTrue(filter.isIncluded("ANYTHING"));
+        assertEquals("ANYTHING", filter.getOutputName("ANYTHING"));
+    }
+
+    @Test
+    public void testGlobs() throws Exception
+    {
+        TableFilter filter = new TableFilter(null, "AUDIT_*, user?", "*_TMP");
+
+        assertTrue(filter.isIncluded("AUDIT_LOG"));
+        assertTrue(filter.isIncluded("audit_log"));
+        assertTrue(filter.isIncluded("USER1"));
+        assertFalse(filter.isIncluded("USER12"));
+        assertFalse(filter.isIncluded("USER"));
+        assertFalse(filter.isIncluded("INVOICE"));
+        assertFalse(filter.isIncluded("AUDIT_LOG_TMP"));
+    }
+
+    @Test
+    public void testGlobCharactersAreLiteral() throws Exception
+    {
+        // only * and ? are special, the rest of the pattern is not a regular expression
+        TableFilter filter = new TableFilter(null, "A.B", null);
+        assertTrue(filter.isIncluded("A.B"));
+        assertFalse(filter.isIncluded("AXB"));
+    }
+
+    @Test
+    public void testRewriteFile() throws Exception
+    {
+        File file = File.createTempFile("tableRewrite", ".txt");
+        try
+        {
+            try (OutputStream out = new FileOutputStream(file))
+            {
+                out.write("Customer = client\nSESSION = --exclude--\nTMP_* = --exclude--\n".getBytes("UTF-8"));
+            }
+
+            TableFilter filter = new TableFilter(file, null, null);
+            assertEquals("client", filter.getOutputName("CUSTOMER"));
+            assertEquals("INVOICE", filter.getOutputName("INVOICE"));
+            assertFalse(filter.isIncluded("SESSION"));
+            assertFalse(filter.isIncluded("TMP_IMPORT"));
+            assertTrue(filter.isIncluded("CUSTOMER"));
+
+            // patterns match the Derby name of a renamed table, not its output name
+            assertFalse(new TableFilter(file, null, "CUST*").isIncluded("CUSTOMER"));
+            assertTrue(new TableFilter(file, null, "client").isIncluded("CUSTOMER"));
+            assertFalse(new TableFilter(file, "client", null).isIncluded("CUSTOMER"));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPatternsOnlyExclude() throws Exception
+    {
+        File file = File.createTempFile("tableRewrite", ".txt");
+        try
+        {
+            try (OutputStream out = new FileOutputStream(file))
+            {
+                out.write("TMP_* = TEMP\n".getBytes("UTF-8"));
+            }
+            new TableFilter(file, null, null);
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.export;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class DelimitedReaderTest
+{
+    @Test
+    public void testValues() throws Exception
+    {
+        DelimitedReader reader = new DelimitedReader(new StringReader(
+                "1,\"plain\",2.5\n"
+                + "2,\"with \"\"quotes\"\", commas\nand a line break\",\n"
+                + "3,\"\",-1\n"));
+        String[] fields = new String[3];
+
+        assertTrue(reader.next(fields));
+        assertArrayEquals(new String[] { "1", "plain", "2.5" }, fields);
+
+        assertTrue(reader.next(fields));
+        assertArrayEquals(new String[] { "2", "with \"quotes\", commas\nand a line break", null }, fields);
+
+        // an empty quoted value is an empty string, an empty unquoted one is NULL
+        assertTrue(reader.next(fields));
+        assertArrayEquals(new String[] { "3", "", "-1" }, fields);
+
+        assertFalse(reader.next(fields));
+    }
+
+    @Test
+    public void testWindowsLineEnds() throws Exception
+    {
+        DelimitedReader reader = new DelimitedReader(new StringReader("1,\"a\"\r\n,2\r\n"));
+        String[] fields = new String[2];
+
+        assertTrue(reader.next(fields));
+        assertArrayEquals(new String[] { "1", "a" }, fields);
+        assertTrue(reader.next(fields));
+        assertArrayEquals(new String[] { null, "2" }, fields);
+        assertFalse(reader.next(fields));
+    }
+
+    @Test
+    public void testSingleNullColumn() throws Exception
+    {
+        // a row holding only NULL is a blank line
+        DelimitedReader reader = new DelimitedReader(new StringReader("\"x\"\n\n\"y\""));
+        String[] fields = new String[1];
+
+        assertTrue(reader.next(fields));
+        assertArrayEquals(new String[] { "x" }, fields);
+        assertTrue(reader.next(fields));
+        assertArrayEquals(new String[] { null }, fields);
+        assertTrue(reader.next(fields));
+        assertArrayEquals(new String[] { "y" }, fields);
+        assertFalse(reader.next(fields));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTooManyFields() throws Exception
+    {
+        new DelimitedReader(new StringReader("1,2,3\n")).next(new String[2]);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTooFewFields() throws Exception
+    {
+        new DelimitedReader(new StringReader("1\n")).next(new String[2]);
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnterminatedValue() throws Exception
+    {
+        new DelimitedReader(new StringReader("1,\"open\n")).next(new String[2]);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.lob;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class DigestIndexTest
+{
+    private static byte[] digest(long value)
+    {
+        // the same value in both halves, so digests differ in their last bytes as well as their first
+        return ByteBuffer.allocate(16).putLong(value).putLong(~value).array();
+    }
+
+    @Test
+    public void testInMemory() throws Exception
+    {
+        DigestIndex index = new DigestIndex(16, 100);
+        try
+        {
+            for (long i = 0; i < 100; i++)
+            {
+                assertTrue(index.add(digest(i)));
+            }
+            for (long i = 0; i < 100; i++)
+            {
+                assertFalse(index.add(digest(i)));
+            }
+            assertEquals(100, index.size());
+            assertEquals(0, index.getSpilledEntries());
+        }
+        finally
+        {
+            index.close();
+        }
+    }
+
+    @Test
+    public void testSpillsAndProbesTheDisk() throws Exception
+    {
+        // enough entries on disk for the spill table to grow and be rehashed
+        int count = 40000;
+        DigestIndex index = new DigestIndex(16, 10);
+        try
+        {
+            for (long i = 0; i < count; i++)
+            {
+                assertTrue(index.add(digest(i)));
+            }
+            assertEquals(count, index.size());
+            assertEquals(count - 10, index.getSpilledEntries());
+
+            // found both among the first entries kept in memory and on disk
+            for (long i = 0; i < count; i++)
+            {
+                assertFalse(index.add(digest(i)));
+            }
+            assertEquals(count, index.size());
+
+            assertTrue(index.add(digest(count)));
+            assertEquals(count + 1, index.size());
+        }
+        finally
+        {
+            index.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsOtherLengths() throws Exception
+    {
+        DigestIndex index = new DigestIndex(16, 10);
+        try
+        {
+            index.add(new byte[20]);
+        }
+        finally
+        {
+            index.close();
+        }
+    }
+}
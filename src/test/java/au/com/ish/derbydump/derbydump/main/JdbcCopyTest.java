@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.main;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.derby.jdbc.EmbeddedDriver;
+import org.junit.Test;
+
+import au.com.ish.derbydump.derbydump.config.Configuration;
+
+/**
+ * Copies a small schema from one Derby database into another, and checks that
+ * both dump to the same bytes.
+ *
+ */
+public class JdbcCopyTest
+{
+    private static final String SOURCE = "jdbc:derby:memory:copySource";
+    private static final String TARGET = "jdbc:derby:memory:copyTarget";
+
+    private static final String[] SCHEMA = {
+            "CREATE TABLE APP.PARENT (ID INTEGER NOT NULL PRIMARY KEY, NAME VARCHAR(50), SI SMALLINT, BI BIGINT,"
+                    + " R REAL, DBL DOUBLE, AMOUNT DECIMAL(10,2), FLAG BOOLEAN, D DATE, T TIME, TM TIMESTAMP,"
+                    + " CODE CHAR(3), BITS VARCHAR(8) FOR BIT DATA)",
+            "CREATE TABLE APP.CHILD (ID INTEGER NOT NULL PRIMARY KEY, PARENT_ID INTEGER REFERENCES APP.PARENT(ID),"
+                    + " NOTE CLOB, DATA BLOB, TXT LONG VARCHAR, BIN LONG VARCHAR FOR BIT DATA)" };
+
+    @Test
+    public void testCopyDumpsIdentically() throws Exception
+    {
+        new EmbeddedDriver();
+        createSource();
+        try (Connection target = DriverManager.getConnection(TARGET + ";create=true"))
+        {
+            execute(target, SCHEMA);
+        }
+
+        Configuration copy = Configuration.builder().derbyUrl(SOURCE).schemaName("APP")
+                .set("copy.url", TARGET).set("copy.batchSize", "7").set("copy.threads", "2").build();
+        new JdbcCopy(copy).execute();
+
+        byte[] source = dump(SOURCE);
+        assertTrue(new String(source, "UTF-8").contains("INSERT INTO CHILD"));
+        assertArrayEquals(source, dump(TARGET));
+    }
+
+    private static void createSource() throws SQLException
+    {
+        try (Connection source = DriverManager.getConnection(SOURCE + ";create=true"))
+        {
+            execute(source, SCHEMA);
+
+            try (PreparedStatement parent = source.prepareStatement(
+                    "INSERT INTO APP.PARENT VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"))
+            {
+                for (int i = 1; i <= 30; i++)
+                {
+                    boolean nulls = i % 10 == 0;
+                    parent.setInt(1, i);
+                    parent.setString(2, nulls ? null : "name 'quoted' \\ " + i);
+                    parent.setObject(3, nulls ? null : (short) i);
+                    parent.setObject(4, nulls ? null : (long) i << 40);
+                    parent.setObject(5, nulls ? null : i / 3f);
+                    parent.setObject(6, nulls ? null : i / 7d);
+                    parent.setObject(7, nulls ? null : new java.math.BigDecimal(i).movePointLeft(2));
+                    parent.setObject(8, nulls ? null : i % 2 == 0);
+                    parent.setObject(9, nulls ? null : java.sql.Date.valueOf("2013-01-" + (10 + i % 20)));
+                    parent.setObject(10, nulls ? null : java.sql.Time.valueOf("10:" + (10 + i) + ":00"));
+                    parent.setObject(11, nulls ? null : java.sql.Timestamp.valueOf("2013-02-03 04:05:06." + i));
+                    parent.setString(12, nulls ? null : "C" + (i % 10));
+                    parent.setBytes(13, nulls ? null : new byte[] { (byte) i, 0, (byte) -i });
+                    parent.executeUpdate();
+                }
+            }
+
+            try (PreparedStatement child = source.prepareStatement("INSERT INTO APP.CHILD VALUES (?, ?, ?, ?, ?, ?)"))
+            {
+                for (int i = 1; i <= 20; i++)
+                {
+                    boolean nulls = i % 5 == 0;
+                    StringBuilder note = new StringBuilder();
+                    byte[] data = new byte[i * 500];
+                    for (int j = 0; j < data.length; j++)
+                    {
+                        data[j] = (byte) (j * i);
+                        note.append((char) ('a' + j % 26));
+                    }
+                    child.setInt(1, i);
+                    child.setObject(2, nulls ? null : i);
+                    child.setString(3, nulls ? null : note.toString());
+                    child.setBytes(4, nulls ? null : data);
+                    child.setString(5, nulls ? null : "line\nbreak " + i);
+                    child.setBytes(6, nulls ? null : new byte[] { 1, 2, (byte) i });
+                    child.executeUpdate();
+                }
+            }
+        }
+    }
+
+    private static void execute(Connection connection, String[] statements) throws SQLException
+    {
+        try (Statement statement = connection.createStatement())
+        {
+            for (String sql : statements)
+            {
+                statement.executeUpdate(sql);
+            }
+        }
+    }
+
+    private static byte[] dump(String url) throws Exception
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new DerbyDump(output, Configuration.builder().derbyUrl(url).schemaName("APP").build()).execute();
+        return output.toByteArray();
+    }
+}
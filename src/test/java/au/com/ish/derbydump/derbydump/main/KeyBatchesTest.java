@@ -0,0 +1,153 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.derby.jdbc.EmbeddedDriver;
+import org.junit.Test;
+
+import au.com.ish.derbydump.derbydump.metadata.Column;
+import au.com.ish.derbydump.derbydump.metadata.Table;
+
+public class KeyBatchesTest
+{
+    private static final String URL = "jdbc:derby:memory:keyBatches";
+
+    private static Table table(String name, int... types)
+    {
+        Table table = new Table();
+        table.setTableName(name);
+        for (int i = 0; i < types.length; i++)
+        {
+            Column column = new Column();
+            column.setColumnName(i == 0 ? "ID" : "C" + i);
+            column.setColumnDataType(types[i]);
+            table.addColumn(column);
+        }
+        return table;
+    }
+
+    /**
+     * @return the ID of every row which starts a statement
+     */
+    private static List<Integer> starts(Connection connection, KeyBatches batches) throws SQLException
+    {
+        List<Integer> starts = new ArrayList<Integer>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT ID, C1 FROM APP.LINES ORDER BY ID"))
+        {
+            int batchRows = 0;
+            while (rows.next())
+            {
+                if (batches.startsBatch(rows, batchRows))
+                {
+                    starts.add(rows.getInt("ID"));
+                    batchRows = 0;
+                }
+                batchRows++;
+            }
+        }
+        return starts;
+    }
+
+    @Test
+    public void testRemovedRowOnlyChangesItsOwnStatement() throws Exception
+    {
+        new EmbeddedDriver();
+        try (Connection connection = DriverManager.getConnection(URL + ";create=true"))
+        {
+            try (Statement statement = connection.createStatement())
+            {
+                statement.execute("CREATE TABLE APP.LINES (ID INTEGER NOT NULL PRIMARY KEY, C1 VARCHAR(20))");
+            }
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO APP.LINES VALUES (?, ?)"))
+            {
+                for (int i = 1; i <= 2000; i++)
+                {
+                    insert.setInt(1, i);
+                    insert.setString(2, i % 7 == 0 ? null : "row " + i);
+                    insert.executeUpdate();
+                }
+            }
+
+            Table table = table("LINES", Types.INTEGER, Types.VARCHAR);
+            table.getPrimaryKey().add("ID");
+            KeyBatches batches = new KeyBatches(table, 16, 10000);
+
+            List<Integer> before = starts(connection, batches);
+            assertEquals(Integer.valueOf(1), before.get(0));
+            assertTrue(before.size() > 2000 / 16 / 2 && before.size() < 2000 / 16 * 2);
+            // the same rows give the same statements
+            assertEquals(before, starts(connection, batches));
+
+            try (Statement statement = connection.createStatement())
+            {
+                statement.executeUpdate("DELETE FROM APP.LINES WHERE ID = 1000");
+                statement.executeUpdate("UPDATE APP.LINES SET C1 = 'changed' WHERE ID = 1500");
+            }
+            // only the key counts, so the update changes nothing
+            List<Integer> expected = new ArrayList<Integer>(before);
+            expected.remove(Integer.valueOf(1000));
+            assertEquals(expected, starts(connection, batches));
+        }
+    }
+
+    @Test
+    public void testKeylessTableCountsRows() throws Exception
+    {
+        KeyBatches batches = new KeyBatches(table("DOCS", Types.BLOB), 10, 100);
+
+        // nothing can be read from the rows, so no row is needed
+        assertTrue(batches.startsBatch(null, 0));
+        assertFalse(batches.startsBatch(null, 1));
+        assertFalse(batches.startsBatch(null, 9));
+        assertTrue(batches.startsBatch(null, 10));
+    }
+
+    @Test
+    public void testMaximumRows() throws Exception
+    {
+        Table table = table("NUMBERS", Types.INTEGER);
+        // an average this large never ends a statement on its own
+        KeyBatches batches = new KeyBatches(table, Integer.MAX_VALUE, 5);
+
+        new EmbeddedDriver();
+        try (Connection connection = DriverManager.getConnection(URL + ";create=true");
+             Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT * FROM (VALUES 1, 2, 3) AS T(ID)"))
+        {
+            assertTrue(rows.next());
+            assertTrue(batches.startsBatch(rows, 0));
+            assertFalse(batches.startsBatch(rows, 4));
+            assertTrue(batches.startsBatch(rows, 5));
+            assertTrue(batches.startsBatch(rows, 6));
+        }
+    }
+}
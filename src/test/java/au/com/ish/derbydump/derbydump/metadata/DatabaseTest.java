@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DatabaseTest {
+
+	private static Table table(Database database, String name, String... parents) {
+		Table table = new Table();
+		table.setTableName(name);
+		for (String parent : parents) {
+			ForeignKey key = new ForeignKey();
+			key.setName("FK_" + name + "_" + parent);
+			key.setReferencedTableName(parent);
+			key.addColumn(parent + "_ID", "ID");
+			table.addForeignKey(key);
+		}
+		database.addTable(table);
+		return table;
+	}
+
+	private static List<List<String>> names(List<List<Table>> layers) {
+		List<List<String>> result = new ArrayList<List<String>>();
+		for (List<Table> layer : layers) {
+			List<String> names = new ArrayList<String>();
+			for (Table table : layer) {
+				names.add(table.getTableName());
+			}
+			result.add(names);
+		}
+		return result;
+	}
+
+	private static List<String> list(String... names) {
+		List<String> result = new ArrayList<String>();
+		for (String name : names) {
+			result.add(name);
+		}
+		return result;
+	}
+
+	@Test
+	public void testLayers() {
+		Database database = new Database();
+		// children listed before their parents, to check the catalog order does not matter
+		table(database, "INVOICE_LINE", "INVOICE", "PRODUCT");
+		table(database, "INVOICE", "CUSTOMER");
+		table(database, "PRODUCT");
+		table(database, "CUSTOMER");
+		table(database, "AUDIT", "MISSING");
+
+		List<List<String>> layers = names(database.getDependencyLayers());
+		assertEquals(3, layers.size());
+		// within a layer the catalog order is kept
+		assertEquals(list("PRODUCT", "CUSTOMER", "AUDIT"), layers.get(0));
+		assertEquals(list("INVOICE"), layers.get(1));
+		assertEquals(list("INVOICE_LINE"), layers.get(2));
+
+		assertFalse(database.hasCycles());
+	}
+
+	@Test
+	public void testSelfReferenceIsNotACycle() {
+		Database database = new Database();
+		table(database, "CATEGORY", "CATEGORY");
+		table(database, "PRODUCT", "CATEGORY");
+
+		assertEquals(2, database.getDependencyLayers().size());
+		assertFalse(database.hasCycles());
+	}
+
+	@Test
+	public void testCycle() {
+		Database database = new Database();
+		table(database, "A", "B");
+		table(database, "B", "A");
+		table(database, "C", "B");
+
+		List<Table> ordered = database.getTablesInDependencyOrder();
+		assertEquals(3, ordered.size());
+		assertTrue(database.hasCycles());
+
+		// every table is placed once, and C still comes after B
+		List<String> names = new ArrayList<String>();
+		for (Table table : ordered) {
+			names.add(table.getTableName());
+		}
+		assertTrue(names.containsAll(list("A", "B", "C")));
+		assertTrue(names.indexOf("C") > names.indexOf("B"));
+	}
+
+	@Test
+	public void testEmpty() {
+		Database database = new Database();
+		assertTrue(database.getDependencyLayers().isEmpty());
+		assertFalse(database.hasCycles());
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.metadata;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+
+import org.junit.Test;
+
+/**
+ * Checks that the formatter writes the same bytes as the toString() of the
+ * matching java and java.sql types, which the dump output relied on before.
+ *
+ */
+public class ValueFormatterTest {
+
+	private final ValueFormatter formatter = new ValueFormatter();
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	private final PrintStream output = new PrintStream(bytes);
+
+	private String written() {
+		output.flush();
+		String result = bytes.toString();
+		bytes.reset();
+		return result;
+	}
+
+	@Test
+	public void testLongs() {
+		long[] values = { 0, 1, -1, 9, 10, 99, 100, 123456789, -987654321, Integer.MAX_VALUE, Integer.MIN_VALUE,
+				Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1 };
+		for (long value : values) {
+			formatter.writeLong(value, false, output);
+			assertEquals(Long.toString(value), written());
+			formatter.writeLong(value, true, output);
+			assertEquals("'" + value + "'", written());
+		}
+	}
+
+	@Test
+	public void testDoubles() {
+		double[] values = { 0.0, -0.0, 1.0, -1.0, 0.5, 1e6, 9999999.0, 1e7, -1e7, 12345678.0, 1e-5, 3.141592653589793,
+				Double.MAX_VALUE, Double.MIN_VALUE, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+				(double) Long.MAX_VALUE, 4503599627370496.0 };
+		for (double value : values) {
+			formatter.writeDouble(value, output);
+			assertEquals(Double.toString(value), written());
+		}
+	}
+
+	@Test
+	public void testFloats() {
+		float[] values = { 0f, -0f, 1f, -1f, 0.1f, 82.333336f, 1e6f, 9999999f, 1e7f, 16777216f, 1e-5f, Float.MAX_VALUE,
+				Float.MIN_VALUE, Float.NaN, Float.NEGATIVE_INFINITY };
+		for (float value : values) {
+			formatter.writeFloat(value, output);
+			assertEquals(Float.toString(value), written());
+		}
+	}
+
+	@Test
+	public void testDates() {
+		String[] values = { "1970-01-01", "2013-12-31", "0001-01-01", "1899-12-30", "2000-02-29", "9999-12-31" };
+		for (String value : values) {
+			Date date = Date.valueOf(value);
+			formatter.writeDate(date.getTime(), output);
+			assertEquals("'" + date + "'", written());
+		}
+	}
+
+	@Test
+	public void testTimes() {
+		String[] values = { "00:00:00", "09:05:01", "12:00:00", "23:59:59" };
+		for (String value : values) {
+			Time time = Time.valueOf(value);
+			formatter.writeTime(time.getTime(), output);
+			assertEquals("'" + time + "'", written());
+		}
+	}
+
+	@Test
+	public void testTimestamps() {
+		String[] values = { "1970-01-01 00:00:00.0", "2013-02-03 04:05:06.7", "2013-02-03 04:05:06.123456789",
+				"2013-02-03 04:05:06.000000001", "2013-02-03 04:05:06.1", "1969-12-31 23:59:59.999", "0001-01-01 00:00:00.0" };
+		for (String value : values) {
+			Timestamp timestamp = Timestamp.valueOf(value);
+			formatter.writeTimestamp(timestamp.getTime(), timestamp.getNanos(), output);
+			assertEquals("'" + timestamp + "'", written());
+		}
+	}
+
+	@Test
+	public void testLocalesWithOtherCalendars() {
+		Locale previous = Locale.getDefault();
+		try {
+			// a Buddhist and a Japanese imperial calendar
+			for (Locale locale : new Locale[] { new Locale("th", "TH"), new Locale("ja", "JP", "JP") }) {
+				Locale.setDefault(locale);
+				ValueFormatter formatter = new ValueFormatter();
+				Timestamp timestamp = Timestamp.valueOf("2013-05-06 07:08:09.5");
+
+				formatter.writeDate(Date.valueOf("2013-05-06").getTime(), output);
+				assertEquals("'2013-05-06'", written());
+				formatter.writeTimestamp(timestamp.getTime(), timestamp.getNanos(), output);
+				assertEquals("'2013-05-06 07:08:09.5'", written());
+			}
+		} finally {
+			Locale.setDefault(previous);
+		}
+	}
+
+	@Test
+	public void testBeforeYearOne() {
+		Calendar calendar = new GregorianCalendar();
+		calendar.clear();
+		calendar.set(Calendar.ERA, GregorianCalendar.BC);
+		calendar.set(44, Calendar.MARCH, 15, 12, 30, 0);
+
+		formatter.writeDate(calendar.getTimeInMillis(), output);
+		assertEquals("'0044-03-15 BC'", written());
+		formatter.writeTimestamp(calendar.getTimeInMillis(), 0, output);
+		assertEquals("'0044-03-15 12:30:00.0 BC'", written());
+	}
+
+	@Test
+	public void testNull() {
+		formatter.writeNull(output);
+		assertEquals("NULL", written());
+	}
+}
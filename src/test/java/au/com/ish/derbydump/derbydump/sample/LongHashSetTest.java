@@ -0,0 +1,65 @@
+/*
+ * Copyright 2013 ish group pty ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.ish.derbydump.derbydump.sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LongHashSetTest
+{
+    @Test
+    public void testAddAndContains()
+    {
+        LongHashSet set = new LongHashSet();
+        assertFalse(set.contains(0));
+
+        assertTrue(set.add(0));
+        assertTrue(set.add(-1));
+        assertTrue(set.add(Long.MIN_VALUE));
+        assertTrue(set.add(Long.MAX_VALUE));
+        assertFalse(set.add(0));
+        assertFalse(set.add(Long.MIN_VALUE));
+
+        assertTrue(set.contains(0));
+        assertTrue(set.contains(-1));
+        assertTrue(set.contains(Long.MIN_VALUE));
+        assertTrue(set.contains(Long.MAX_VALUE));
+        assertFalse(set.contains(1));
+        assertEquals(4, set.size());
+    }
+
+    @Test
+    public void testGrowsPastItsInitialCapacity()
+    {
+        LongHashSet set = new LongHashSet(4);
+        for (long i = 0; i < 100000; i++)
+        {
+            // spread over the high bits too, as keys from different sequences would be
+            assertTrue(set.add(i * 0x100000001L));
+        }
+        assertEquals(100000, set.size());
+
+        for (long i = 0; i < 100000; i++)
+        {
+            assertTrue(set.contains(i * 0x100000001L));
+            assertFalse(set.contains(i * 0x100000001L + 1));
+        }
+    }
+}